@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Bytecode of one function for the vm.
+//Operands are one byte (argument counts) or two bytes big endian (everything else)
+class Chunk {
+
+    static final byte OP_CONSTANT      = 0;
+    static final byte OP_NIL           = 1;
+    static final byte OP_TRUE          = 2;
+    static final byte OP_FALSE         = 3;
+    static final byte OP_POP           = 4;
+    static final byte OP_GET_LOCAL     = 5;
+    static final byte OP_SET_LOCAL     = 6;
+    static final byte OP_GET_GLOBAL    = 7;
+    static final byte OP_DEFINE_GLOBAL = 8;
+    static final byte OP_SET_GLOBAL    = 9;
+    static final byte OP_GET_UPVALUE   = 10;
+    static final byte OP_SET_UPVALUE   = 11;
+    static final byte OP_GET_STATIC    = 12;
+    static final byte OP_SET_STATIC    = 13;
+    static final byte OP_GET_PROPERTY  = 14;
+    static final byte OP_SET_PROPERTY  = 15;
+    static final byte OP_GET_SUPER     = 16;
+    static final byte OP_EQUAL         = 17;
+    static final byte OP_NOT_EQUAL     = 18;
+    static final byte OP_GREATER       = 19;
+    static final byte OP_GREATER_EQUAL = 20;
+    static final byte OP_LESS          = 21;
+    static final byte OP_LESS_EQUAL    = 22;
+    static final byte OP_ADD           = 23;
+    static final byte OP_SUBTRACT      = 24;
+    static final byte OP_MULTIPLY      = 25;
+    static final byte OP_DIVIDE        = 26;
+    static final byte OP_NOT           = 27;
+    static final byte OP_NEGATE        = 28;
+    static final byte OP_PRINT         = 29;
+    //expression statement,echoes the value like the tree walker does
+    static final byte OP_ECHO          = 30;
+    static final byte OP_IF_BLOCK_ON   = 31;
+    static final byte OP_IF_BLOCK_OFF  = 32;
+    static final byte OP_JUMP          = 33;
+    static final byte OP_JUMP_IF_FALSE = 34;
+    static final byte OP_LOOP          = 35;
+    static final byte OP_CALL          = 38;
+    static final byte OP_CLOSURE       = 39;
+    static final byte OP_CLOSE_UPVALUE = 40;
+    static final byte OP_RETURN        = 41;
+    static final byte OP_CLASS         = 42;
+    static final byte OP_INHERIT       = 43;
+    static final byte OP_METHOD        = 44;
+    static final byte OP_GETTER        = 45;
+    static final byte OP_STATIC_METHOD = 46;
+    static final byte OP_STATIC_GETTER = 47;
+    static final byte OP_STATIC_VAR    = 48;
+    //call in tail position,a closure replaces the current frame,anything
+    //else is called like OP_CALL and the OP_RETURN after it returns the result
+    static final byte OP_TAIL_CALL     = 49;
+
+    byte[] code = new byte[64];
+    int count = 0;
+    //token of the instruction starting at that offset,used for runtime errors
+    Token[] tokens = new Token[64];
+    private final List<Object> constantList = new ArrayList<>();
+    //strings and numbers are stored once per chunk
+    private final Map<Object,Integer> constantIndex = new HashMap<>();
+    Object[] constants;
+
+    void write(byte value,Token token){
+        if(count==code.length){
+            code = Arrays.copyOf(code,count * 2);
+            tokens = Arrays.copyOf(tokens,count * 2);
+        }
+        code[count] = value;
+        tokens[count] = token;
+        count++;
+    }
+
+    void writeShort(int value,Token token){
+        write((byte)((value >> 8) & 0xff),token);
+        write((byte)(value & 0xff),token);
+    }
+
+    int addConstant(Object value){
+        boolean shared = value instanceof String || value instanceof Double;
+        if(shared){
+            Integer index = constantIndex.get(value);
+            if(index!=null) return index;
+        }
+        constantList.add(value);
+        if(shared){
+            constantIndex.put(value,constantList.size() - 1);
+        }
+        return constantList.size() - 1;
+    }
+
+    //called once the function is compiled
+    void finish(){
+        code = Arrays.copyOf(code,count);
+        tokens = Arrays.copyOf(tokens,count);
+        constants = constantList.toArray();
+        constantIndex.clear();
+    }
+}
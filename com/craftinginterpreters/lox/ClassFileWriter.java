@@ -0,0 +1,317 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Just enough of the class file format for the jit.
+//Classes are written as version 49 so the verifier infers the types
+//itself and no stack map frames have to be computed
+class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    static final int ALOAD_0       = 0x2a;
+    static final int ALOAD_1       = 0x2b;
+    static final int ALOAD_2       = 0x2c;
+    static final int ICONST_0      = 0x03;
+    static final int ICONST_1      = 0x04;
+    static final int DCONST_0      = 0x0e;
+    static final int DCONST_1      = 0x0f;
+    static final int BIPUSH        = 0x10;
+    static final int SIPUSH        = 0x11;
+    static final int LDC2_W        = 0x14;
+    static final int DLOAD         = 0x18;
+    static final int AALOAD        = 0x32;
+    static final int DSTORE        = 0x39;
+    static final int POP2          = 0x58;
+    static final int DUP2          = 0x5c;
+    static final int DADD          = 0x63;
+    static final int DSUB          = 0x67;
+    static final int DMUL          = 0x6b;
+    static final int DDIV          = 0x6f;
+    static final int DNEG          = 0x77;
+    static final int DCMPL         = 0x97;
+    static final int DCMPG         = 0x98;
+    static final int IFEQ          = 0x99;
+    static final int IFNE          = 0x9a;
+    static final int IFLT          = 0x9b;
+    static final int IFGE          = 0x9c;
+    static final int IFGT          = 0x9d;
+    static final int IFLE          = 0x9e;
+    static final int GOTO          = 0xa7;
+    static final int DRETURN       = 0xaf;
+    static final int RETURN        = 0xb1;
+    static final int GETSTATIC     = 0xb2;
+    static final int GETFIELD      = 0xb4;
+    static final int PUTFIELD      = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC  = 0xb8;
+    static final int ATHROW        = 0xbf;
+    static final int CHECKCAST     = 0xc0;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String,Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<MethodWriter> methods = new ArrayList<>();
+
+    ClassFileWriter(String name){
+        this.name = name;
+    }
+
+    void addInterface(String interfaceName){
+        interfaces.add(interfaceName);
+    }
+
+    MethodWriter method(int access,String methodName,String descriptor){
+        MethodWriter method = new MethodWriter(access,methodName,descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray(){
+        try{
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            int[] interfaceRefs = new int[interfaces.size()];
+            for(int i=0;i<interfaceRefs.length;i++){
+                interfaceRefs[i] = classRef(interfaces.get(i));
+            }
+            int code = utf8("Code");
+            for(MethodWriter method : methods){
+                method.nameIndex = utf8(method.name);
+                method.descriptorIndex = utf8(method.descriptor);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for(int ref : interfaceRefs) out.writeShort(ref);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for(MethodWriter method : methods){
+                out.writeShort(method.access);
+                out.writeShort(method.nameIndex);
+                out.writeShort(method.descriptorIndex);
+                out.writeShort(1);
+                out.writeShort(code);
+                out.writeInt(12 + method.length);
+                out.writeShort(method.maxStack);
+                out.writeShort(method.maxLocals);
+                out.writeInt(method.length);
+                out.write(method.code,0,method.length);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        }catch (IOException error){
+            throw new IllegalStateException(error);
+        }
+    }
+
+    //constant pool,every entry is written once
+
+    private int entry(String key,int size,PoolWriter writer){
+        Integer index = poolIndex.get(key);
+        if(index!=null) return index;
+        try{
+            writer.write();
+        }catch (IOException error){
+            throw new IllegalStateException(error);
+        }
+        index = poolCount;
+        poolCount += size;
+        poolIndex.put(key,index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write() throws IOException;
+    }
+
+    int utf8(String value){
+        return entry("U" + value,1,() -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int classRef(String className){
+        int nameIndex = utf8(className);
+        return entry("C" + className,1,() -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    int doubleConstant(double value){
+        return entry("D" + Double.doubleToRawLongBits(value),2,() -> {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        });
+    }
+
+    private int nameAndType(String memberName,String descriptor){
+        int nameIndex = utf8(memberName);
+        int descriptorIndex = utf8(descriptor);
+        return entry("N" + memberName + ":" + descriptor,1,() -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag,String owner,String memberName,String descriptor){
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(memberName,descriptor);
+        return entry("M" + tag + owner + "." + memberName + ":" + descriptor,1,() -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(typeIndex);
+        });
+    }
+
+    int fieldRef(String owner,String fieldName,String descriptor){
+        return memberRef(9,owner,fieldName,descriptor);
+    }
+
+    int methodRef(String owner,String methodName,String descriptor){
+        return memberRef(10,owner,methodName,descriptor);
+    }
+
+    static final class Label {
+        private int position = -1;
+        //offsets of the jump instructions waiting for this label
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    //code of one method,the caller passes the stack effect of every
+    //instruction so max stack comes out without a separate analysis
+    final class MethodWriter {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private int nameIndex;
+        private int descriptorIndex;
+
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        int maxLocals = 0;
+
+        private MethodWriter(int access,String name,String descriptor){
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        private void put(int value){
+            if(length==code.length){
+                code = Arrays.copyOf(code,length * 2);
+            }
+            code[length++] = (byte)value;
+        }
+
+        private void putShort(int value){
+            put(value >> 8);
+            put(value);
+        }
+
+        private void effect(int delta){
+            stack += delta;
+            if(stack>maxStack) maxStack = stack;
+        }
+
+        void op(int opcode,int delta){
+            put(opcode);
+            effect(delta);
+        }
+
+        void opByte(int opcode,int operand,int delta){
+            put(opcode);
+            put(operand);
+            effect(delta);
+        }
+
+        void opShort(int opcode,int operand,int delta){
+            put(opcode);
+            putShort(operand);
+            effect(delta);
+        }
+
+        void loadDouble(int local){
+            if(local>255) throw new IllegalStateException("Too many locals.");
+            opByte(DLOAD,local,2);
+        }
+
+        void storeDouble(int local){
+            if(local>255) throw new IllegalStateException("Too many locals.");
+            opByte(DSTORE,local,-2);
+            if(local + 2>maxLocals) maxLocals = local + 2;
+        }
+
+        void jump(int opcode,Label label,int delta){
+            int start = length;
+            put(opcode);
+            effect(delta);
+            if(label.position>=0){
+                putShort(offset(label.position - start));
+            }else{
+                label.jumps.add(start);
+                putShort(0);
+            }
+        }
+
+        void mark(Label label){
+            label.position = length;
+            for(int start : label.jumps){
+                int offset = offset(length - start);
+                code[start + 1] = (byte)(offset >> 8);
+                code[start + 2] = (byte)offset;
+            }
+            label.jumps.clear();
+        }
+
+        private int offset(int offset){
+            if(offset<Short.MIN_VALUE || offset>Short.MAX_VALUE){
+                throw new IllegalStateException("Jump too large.");
+            }
+            return offset;
+        }
+
+        //after a goto,return or throw the next instruction starts with the stack
+        //the jumps to it have,which the compiler always keeps empty or known
+        void setStack(int depth){
+            stack = depth;
+        }
+
+        int stack(){
+            return stack;
+        }
+    }
+}
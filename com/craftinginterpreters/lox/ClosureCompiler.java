@@ -0,0 +1,264 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+//Turns resolved statements into trees of ExprNode/StmtNode.
+//Everything the visitors decide at run time (operator,global or local,
+//frame depth and slot) is decided here once and kept in the node
+class ClosureCompiler implements Expr.Visitor<ExprNode>,Stmt.Visitor<StmtNode>{
+
+    StmtNode compile(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expr expr){
+        return expr.accept(this);
+    }
+
+    private StmtNode[] compile(List<Stmt> statements){
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for(int i=0;i<nodes.length;i++){
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt){
+        Expr expression = stmt.expression;
+        ExprNode node = compile(expression);
+        if(!(expression instanceof Expr.Assign) && !(expression instanceof Expr.Call) &&
+            !(expression instanceof Expr.Variable) && !(expression instanceof Expr.Set)){
+            return new StmtNode.EchoNode(node);
+        }
+        return new StmtNode.ExpressionNode(node);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt){
+        return new StmtNode.PrintNode(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt){
+        ExprNode initializer = stmt.initializer==null ? null : compile(stmt.initializer);
+        if(stmt.slot==-1){
+            return new StmtNode.DefineGlobalNode(stmt.name.lexeme,initializer);
+        }
+        if(stmt.cell){
+            return new StmtNode.DefineCellNode(stmt.slot,initializer);
+        }
+        return new StmtNode.DefineLocalNode(stmt.slot,initializer);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt){
+        if(!stmt.newFrame) return new StmtNode.SequenceNode(compile(stmt.statements));
+        return new StmtNode.BlockNode(stmt.slots,compile(stmt.statements));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt){
+        StmtNode elseBranch = stmt.elseBranch==null ? null : compile(stmt.elseBranch);
+        return new StmtNode.IfNode(compile(stmt.condition),compile(stmt.thenBranch),elseBranch);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt){
+        return new StmtNode.WhileNode(compile(stmt.condition),compile(stmt.statement));
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt){
+        StmtNode initializer = stmt.initializer==null ? null : compile(stmt.initializer);
+        StmtNode increment = stmt.increment==null ? null : compile(stmt.increment);
+        return new StmtNode.ForNode(stmt.slots,initializer,compile(stmt.condition),increment,compile(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt){
+        if(!stmt.loop) return new StmtNode.EmptyNode();
+        return new StmtNode.BreakNode();
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt){
+        return new StmtNode.FunctionNode(stmt);
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt){
+        if(stmt.tail){
+            return new StmtNode.ReturnNode(call((Expr.Call) stmt.value,true));
+        }
+        return new StmtNode.ReturnNode(stmt.value==null ? null : compile(stmt.value));
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt){
+        return new StmtNode.InterpretedNode(stmt);
+    }
+
+    @Override
+    public StmtNode visitGetField(Stmt.GetField stmt){
+        return new StmtNode.EmptyNode();
+    }
+
+    @Override
+    public StmtNode visitStaticVarStmt(Stmt.StaticVar stmt){
+        return new StmtNode.InterpretedNode(stmt);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr){
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        boolean numbers = left.isNumber() && right.isNumber();
+
+        switch (expr.operator.type){
+            case PLUS:
+                if(numbers) return new ExprNode.NumAddNode(expr.operator,left,right);
+                return new ExprNode.AddNode(expr.operator,left,right);
+            case MINUS:
+                return new ExprNode.SubtractNode(expr.operator,left,right);
+            case STAR:
+                return new ExprNode.MultiplyNode(expr.operator,left,right);
+            case SLASH:
+                return new ExprNode.DivideNode(expr.operator,left,right);
+            case LESS:
+                if(numbers) return new ExprNode.NumLessNode(expr.operator,left,right);
+                return new ExprNode.LessNode(expr.operator,left,right);
+            case LESS_EQUAL:
+                return new ExprNode.LessEqualNode(expr.operator,left,right);
+            case GREATER:
+                return new ExprNode.GreaterNode(expr.operator,left,right);
+            case GREATER_EQUAL:
+                return new ExprNode.GreaterEqualNode(expr.operator,left,right);
+            case EQUAL_EQUAL:
+                return new ExprNode.EqualNode(expr.operator,left,right);
+            case BANG_EQUAL:
+                return new ExprNode.NotEqualNode(expr.operator,left,right);
+        }
+
+        return new ExprNode.InterpretedNode(expr);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr){
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr){
+        return new ExprNode.ConstantNode(expr.value);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr){
+        ExprNode right = compile(expr.right);
+        switch (expr.operator.type){
+            case MINUS:
+                return new ExprNode.NegateNode(right);
+            case BANG:
+                return new ExprNode.NotNode(right);
+        }
+
+        return new ExprNode.InterpretedNode(expr);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr){
+        if(expr.cell) return new ExprNode.CellGetNode(expr.depth,expr.slot);
+        return variable(expr.name,expr.depth,expr.slot);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr){
+        return variable(expr.keyword,expr.depth,expr.slot);
+    }
+
+    private ExprNode variable(Token name,int depth,int slot){
+        if(depth==-1){
+            return new ExprNode.GlobalGetNode(name);
+        }
+        if(depth==0){
+            switch (slot){
+                case 0: return new ExprNode.LocalGetSlot0Node();
+                case 1: return new ExprNode.LocalGetSlot1Node();
+                case 2: return new ExprNode.LocalGetSlot2Node();
+                case 3: return new ExprNode.LocalGetSlot3Node();
+            }
+            return new ExprNode.LocalGetNode(slot);
+        }
+        if(depth==1){
+            return new ExprNode.EnclosingGetNode(slot);
+        }
+        return new ExprNode.AncestorGetNode(depth,slot);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr){
+        ExprNode value = compile(expr.value);
+        if(expr.cell){
+            return new ExprNode.CellSetNode(expr.depth,expr.slot,value);
+        }
+        if(expr.depth==-1){
+            return new ExprNode.GlobalSetNode(expr.name,value);
+        }
+        if(expr.depth==0){
+            return new ExprNode.LocalSetNode(expr.slot,value);
+        }
+        return new ExprNode.AncestorSetNode(expr.depth,expr.slot,value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr){
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if(expr.operator.type == TokenType.OR){
+            return new ExprNode.OrNode(left,right);
+        }
+        return new ExprNode.AndNode(left,right);
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr){
+        return call(expr,false);
+    }
+
+    private ExprNode call(Expr.Call expr,boolean tail){
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for(int i=0;i<arguments.length;i++){
+            Stmt argument = expr.arguments.get(i);
+            if(argument instanceof Stmt.Function){
+                arguments[i] = new ExprNode.FunctionNode((Stmt.Function) argument);
+            }
+            else{
+                arguments[i] = compile(((Stmt.Expression) argument).expression);
+            }
+        }
+        if(expr.callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get) expr.callee;
+            return new ExprNode.InvokeNode(compile(get.object),get.name,get.cache,arguments,expr.paren,tail);
+        }
+        if(expr.callee instanceof Expr.Super){
+            return new ExprNode.SuperInvokeNode((Expr.Super) expr.callee,arguments,expr.paren,tail);
+        }
+        return new ExprNode.CallNode(compile(expr.callee),arguments,expr.paren,tail);
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr){
+        return new ExprNode.GetNode(compile(expr.object),expr.name,expr.cache);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr){
+        return new ExprNode.SetNode(compile(expr.object),expr.name,compile(expr.value),expr.cache);
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr){
+        return new ExprNode.InterpretedNode(expr);
+    }
+}
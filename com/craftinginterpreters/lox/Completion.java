@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+//How a statement finished,every engine passes it up to the loop or the
+//function that handles it.The value of a return is in Interpreter.returnValue
+enum Completion {
+    NORMAL,
+    BREAK,
+    RETURN
+}
@@ -1,42 +1,95 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+//Frames are arrays indexed by the slots the resolver gives to every local,
+//only the global frame still needs names, because globals are not resolved
 class Environment{
-    final Environment enclosing;
-
-    private final Map<String, Object> values = new HashMap<>();
+    //not final,frames taken from Interpreter.acquireFrame are reused
+    Environment enclosing;
+
+    //read directly by the closure compiled nodes
+    Object[] values;
+    //a slot holding NUMBER keeps its value unboxed in numbers,so numeric
+    //loops of the tree walking engines update variables without a Double per store
+    static final Object NUMBER = new Object();
+    double[] numbers;
+
+    //a variable that a closure captured and that is assigned is kept in
+    //one of these,the frame and every closure hold the same Cell
+    static final class Cell {
+        Object value;
+
+        Cell(Object value){
+            this.value = value;
+        }
+    }
+    //name -> slot, used only by the global environment
+    private final Map<String, Integer> globalSlots;
+    private int globalCount = 0;
 
     Environment(){
         enclosing = null;
+        values = new Object[16];
+        globalSlots = new HashMap<>();
     }
 
-    Environment(Environment enclosing){
+    Environment(Environment enclosing,int size){
         this.enclosing = enclosing;
+        this.values = new Object[size];
+        this.globalSlots = null;
     }
 
     Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            if(values.get(name.lexeme)==null){
-                throw new RuntimeError(name,"Unitialized variable" + name.lexeme);
-            }
-            return values.get(name.lexeme);
+        return get(slot(name),name);
+    }
+
+    //global frame,a name keeps its slot once it is defined,a redefinition
+    //only changes the value,so call sites bind to the slot once
+    Object get(int slot,Token name){
+        Object value = value(slot);
+        if(value==null){
+            throw new RuntimeError(name,"Unitialized variable" + name.lexeme);
         }
+        return value;
+    }
 
-        if(enclosing!=null){
-            return enclosing.get(name);
+    //global frame
+    int slot(Token name){
+        Integer slot = globalSlots.get(name.lexeme);
+        if(slot!=null){
+            return slot;
         }
 
         throw new RuntimeError(name,"Undefined variable '" + name.lexeme +"'.");
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    //a number stored unboxed is boxed once here and kept in the slot
+    Object value(int slot){
+        Object value = values[slot];
+        if(value==NUMBER){
+            value = numbers[slot];
+            values[slot] = value;
+        }
+        return value;
+    }
+
+    void setNumber(int slot,double value){
+        if(numbers==null || numbers.length<values.length){
+            numbers = numbers==null ? new double[values.length] : Arrays.copyOf(numbers,values.length);
+        }
+        numbers[slot] = value;
+        values[slot] = NUMBER;
+    }
+
+    Object getAt(int distance,int slot) {
+        return ancestor(distance).value(slot);
     }
 
-    void assignAt(int distance,Token name,Object value){
-        ancestor(distance).values.put(name.lexeme,value);
+    void assignAt(int distance,int slot,Object value){
+        ancestor(distance).values[slot] = value;
     }
 
     Environment ancestor(int distance){
@@ -48,30 +101,53 @@ class Environment{
     }
 
     void assign(Token name,Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme,value);
-            return;
-        }
-
-        if(enclosing!=null){
-            enclosing.assign(name,value);
+        Integer slot = globalSlots.get(name.lexeme);
+        if(slot!=null){
+            values[slot] = value;
             return;
         }
 
         throw new RuntimeError(name,"Undefined variable '" + name.lexeme +"'.");
     }
 
+    //global frame,-1 when the name was never defined
+    int slotOf(String name){
+        Integer slot = globalSlots.get(name);
+        return slot==null ? -1 : slot;
+    }
+
+    //local frames
+    void define(int slot,Object value){
+        values[slot] = value;
+    }
+
+    //global frame
     void define(String name,Object value){
-        values.put(name,value);
+        Integer slot = globalSlots.get(name);
+        if(slot==null){
+            if(globalCount==values.length){
+                values = Arrays.copyOf(values,values.length * 2);
+            }
+            slot = globalCount++;
+            globalSlots.put(name,slot);
+        }
+        values[slot] = value;
     }
 
     public String toString(){
         String result = "";
 
-        for(Map.Entry<String,Object> entry : values.entrySet()){
-            result += entry.getKey() + "=" + entry.getValue() + "\n";
+        if(globalSlots!=null){
+            for(Map.Entry<String,Integer> entry : globalSlots.entrySet()){
+                result += entry.getKey() + "=" + value(entry.getValue()) + "\n";
+            }
+            return result;
+        }
+
+        for(int i=0;i<values.length;i++){
+            result += i + "=" + value(i) + "\n";
         }
 
         return result;
     }
-}
\ No newline at end of file
+}
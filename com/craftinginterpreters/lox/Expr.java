@@ -3,6 +3,7 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 abstract class Expr {
+   //children are not final,the Optimizer replaces folded ones in place
    interface Visitor<R> {
      R visitBinaryExpr(Binary expr);
      R visitGroupingExpr(Grouping expr);
@@ -30,9 +31,11 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
-        final Expr left;
+        Expr left;
         public Token operator;
-        final Expr right;
+        Expr right;
+        //cleared by the tree walker the first time an operand is not a number
+        boolean numeric = true;
        public void changeTokenType(TokenType type){
            this.operator.type = type;
        }
@@ -50,15 +53,18 @@ abstract class Expr {
            return visitor.visitCallExpr(this);
        }
 
-       final Expr callee;
+       Expr callee;
        final Token paren;
        final List<Stmt> arguments;
+       //last function whose arity matched here,it needs no further check
+       Stmt.Function checked;
     }
 
     static class Get extends Expr {
        Get(Expr object,Token name){
            this.object = object;
            this.name = name;
+           this.cache = new InlineCache(name,"get");
        }
 
        @Override
@@ -66,8 +72,9 @@ abstract class Expr {
            return visitor.visitGetExpr(this);
        }
 
-       final Expr object;
+       Expr object;
        final Token name;
+       final InlineCache cache;
     }
 
    static class Grouping extends Expr {
@@ -112,7 +119,7 @@ abstract class Expr {
     }
 
         final Token operator;
-        final Expr right;
+        Expr right;
 }
 
     static class Variable extends Expr {
@@ -124,6 +131,13 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {return visitor.visitVariableExpr(this);}
 
         final Token name;
+        //set by the resolver, depth -1 means it is a global
+        int depth = -1;
+        int slot;
+        //the slot holds an Environment.Cell shared with closures
+        boolean cell = false;
+        //slot in the globals,bound the first time the name is found there
+        int global = -1;
     }
 
     static class Assign extends Expr {
@@ -138,7 +152,13 @@ abstract class Expr {
        }
 
        final Token name;
-       final Expr value;
+       Expr value;
+       int depth = -1;
+       int slot;
+       boolean cell = false;
+       int global = -1;
+       //the tree walker stores the value unboxed until it is not a number
+       boolean numeric = true;
     }
 
     //This is exprimental
@@ -154,9 +174,9 @@ abstract class Expr {
            return visitor.visitLogicalExpr(this);
        }
 
-       final Expr left;
+       Expr left;
        final Token operator;
-       final Expr right;
+       Expr right;
     }
 
     static class Set extends Expr {
@@ -164,6 +184,7 @@ abstract class Expr {
            this.object = object;
            this.name = name;
            this.value = value;
+           this.cache = new InlineCache(name,"set");
        }
 
        @Override
@@ -171,9 +192,10 @@ abstract class Expr {
            return visitor.visitSetExpr(this);
        }
 
-       final Expr object;
+       Expr object;
        final Token name;
-       final Expr value;
+       Expr value;
+       final InlineCache cache;
     }
 
     static class Super extends Expr {
@@ -189,6 +211,14 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        int depth = -1;
+        int slot;
+        //where "this" is,it is not always next to "super" inside a fun
+        int thisDepth;
+        int thisSlot;
+        //superclass last seen here and its method,see Interpreter.superMethod
+        LoxClass superclass;
+        LoxFunction resolved;
     }
 
     static class This extends Expr {
@@ -202,6 +232,8 @@ abstract class Expr {
        }
 
        final Token keyword;
+       int depth = -1;
+       int slot;
     }
 
 
@@ -0,0 +1,923 @@
+package com.craftinginterpreters.lox;
+
+
+//Executable form of an expression made by the ClosureCompiler.
+//Every node already knows its operator and where its variables live,
+//so running it is one virtual call instead of accept + visit + switch
+abstract class ExprNode {
+
+    abstract Object evaluate(Interpreter interpreter);
+
+    //the value of a node that usually produces a number,without boxing it.
+    //Anything else comes out as NotNumber and the caller finishes the
+    //operation with the boxed value,the same way evaluate would
+    double evaluateNumber(Interpreter interpreter){
+        return number(evaluate(interpreter));
+    }
+
+    //for expression statements,assignments skip boxing a result nobody reads
+    void evaluateForEffect(Interpreter interpreter){
+        evaluate(interpreter);
+    }
+
+    //true when the node can only produce a number (or fail),
+    //lets the binary nodes skip the type checks
+    boolean isNumber(){
+        return false;
+    }
+
+    static final class NotNumber extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        NotNumber(Object value){
+            super(null,null,false,false);
+            this.value = value;
+        }
+    }
+
+    static double number(Object value){
+        if(value instanceof Double) return (double)value;
+        throw new NotNumber(value);
+    }
+
+    static double number(Environment frame,int slot){
+        Object value = frame.values[slot];
+        if(value==Environment.NUMBER) return frame.numbers[slot];
+        return number(value);
+    }
+
+    static final class ConstantNode extends ExprNode {
+        private final Object value;
+
+        ConstantNode(Object value){
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return value;
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(value);
+        }
+
+        @Override
+        boolean isNumber(){
+            return value instanceof Double;
+        }
+    }
+
+    //locals of the current frame,the first slots get their own node
+    static final class LocalGetSlot0Node extends ExprNode {
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.value(0);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment,0);
+        }
+    }
+
+    static final class LocalGetSlot1Node extends ExprNode {
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.value(1);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment,1);
+        }
+    }
+
+    static final class LocalGetSlot2Node extends ExprNode {
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.value(2);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment,2);
+        }
+    }
+
+    static final class LocalGetSlot3Node extends ExprNode {
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.value(3);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment,3);
+        }
+    }
+
+    static final class LocalGetNode extends ExprNode {
+        private final int slot;
+
+        LocalGetNode(int slot){
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.value(slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment,slot);
+        }
+    }
+
+    static final class EnclosingGetNode extends ExprNode {
+        private final int slot;
+
+        EnclosingGetNode(int slot){
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.enclosing.value(slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment.enclosing,slot);
+        }
+    }
+
+    static final class AncestorGetNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        AncestorGetNode(int depth,int slot){
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.environment.getAt(depth,slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            return number(interpreter.environment.ancestor(depth),slot);
+        }
+    }
+
+    //variable shared with closures through an Environment.Cell
+    static final class CellGetNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        CellGetNode(int depth,int slot){
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return ((Environment.Cell) interpreter.environment.getAt(depth,slot)).value;
+        }
+    }
+
+    //global nodes find the slot of their name once,see Environment.get(int,Token)
+    static final class GlobalGetNode extends ExprNode {
+        private final Token name;
+        private int slot = -1;
+
+        GlobalGetNode(Token name){
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            if(slot==-1) slot = interpreter.globals.slot(name);
+            return interpreter.globals.get(slot,name);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            Environment globals = interpreter.globals;
+            if(slot==-1) slot = globals.slot(name);
+            if(globals.values[slot]==Environment.NUMBER) return globals.numbers[slot];
+            return number(globals.get(slot,name));
+        }
+    }
+
+    //the setters store numbers unboxed until the first value that is not one
+    static final class LocalSetNode extends ExprNode {
+        private final int slot;
+        private final ExprNode value;
+        private boolean numeric = true;
+
+        LocalSetNode(int slot,ExprNode value){
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return interpreter.environment.value(slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return number(interpreter.environment,slot);
+        }
+
+        @Override
+        void evaluateForEffect(Interpreter interpreter){
+            if(numeric){
+                double result;
+                try{
+                    result = value.evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    interpreter.environment.values[slot] = notNumber.value;
+                    return;
+                }
+                interpreter.environment.setNumber(slot,result);
+                return;
+            }
+            Object result = value.evaluate(interpreter);
+            interpreter.environment.values[slot] = result;
+        }
+
+        @Override
+        boolean isNumber(){
+            return value.isNumber();
+        }
+    }
+
+    static final class AncestorSetNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private final ExprNode value;
+        private boolean numeric = true;
+
+        AncestorSetNode(int depth,int slot,ExprNode value){
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return interpreter.environment.getAt(depth,slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return number(interpreter.environment.ancestor(depth),slot);
+        }
+
+        @Override
+        void evaluateForEffect(Interpreter interpreter){
+            if(numeric){
+                double result;
+                try{
+                    result = value.evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    interpreter.environment.assignAt(depth,slot,notNumber.value);
+                    return;
+                }
+                interpreter.environment.ancestor(depth).setNumber(slot,result);
+                return;
+            }
+            Object result = value.evaluate(interpreter);
+            interpreter.environment.assignAt(depth,slot,result);
+        }
+
+        @Override
+        boolean isNumber(){
+            return value.isNumber();
+        }
+    }
+
+    static final class CellSetNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private final ExprNode value;
+
+        CellSetNode(int depth,int slot,ExprNode value){
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object result = value.evaluate(interpreter);
+            ((Environment.Cell) interpreter.environment.getAt(depth,slot)).value = result;
+            return result;
+        }
+    }
+
+    static final class GlobalSetNode extends ExprNode {
+        private final Token name;
+        private final ExprNode value;
+        private boolean numeric = true;
+        private int slot = -1;
+
+        GlobalSetNode(Token name,ExprNode value){
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return interpreter.globals.value(slot);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            evaluateForEffect(interpreter);
+            return number(interpreter.globals,slot);
+        }
+
+        @Override
+        void evaluateForEffect(Interpreter interpreter){
+            if(numeric){
+                double result;
+                try{
+                    result = value.evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    interpreter.globals.values[slot(interpreter)] = notNumber.value;
+                    return;
+                }
+                interpreter.globals.setNumber(slot(interpreter),result);
+                return;
+            }
+            Object result = value.evaluate(interpreter);
+            interpreter.globals.values[slot(interpreter)] = result;
+        }
+
+        private int slot(Interpreter interpreter){
+            if(slot==-1) slot = interpreter.globals.slot(name);
+            return slot;
+        }
+
+        @Override
+        boolean isNumber(){
+            return value.isNumber();
+        }
+    }
+
+    //base of the binary nodes,the slow path goes to Interpreter.binary
+    //so errors and string handling stay the same as the tree walker
+    abstract static class BinaryNode extends ExprNode {
+        final Token operator;
+        final ExprNode left;
+        final ExprNode right;
+
+        BinaryNode(Token operator,ExprNode left,ExprNode right){
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    //+ - * /,operands and result stay unboxed while both sides are numbers
+    abstract static class ArithmeticNode extends BinaryNode {
+        //cleared the first time an operand is not a number
+        private boolean numeric = true;
+
+        ArithmeticNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        abstract double apply(double a,double b);
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            if(numeric){
+                try{
+                    return evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    return notNumber.value;
+                }
+            }
+            Object a = left.evaluate(interpreter);
+            Object b = right.evaluate(interpreter);
+            if(a instanceof Double && b instanceof Double){
+                return apply((double)a,(double)b);
+            }
+            return Interpreter.binary(operator,a,b);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            if(!numeric){
+                return number(evaluate(interpreter));
+            }
+            double a;
+            try{
+                a = left.evaluateNumber(interpreter);
+            }catch (NotNumber notNumber){
+                return number(Interpreter.binary(operator,notNumber.value,right.evaluate(interpreter)));
+            }
+            double b;
+            try{
+                b = right.evaluateNumber(interpreter);
+            }catch (NotNumber notNumber){
+                return number(Interpreter.binary(operator,a,notNumber.value));
+            }
+            return apply(a,b);
+        }
+    }
+
+    static final class AddNode extends ArithmeticNode {
+        AddNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        double apply(double a,double b){
+            return a + b;
+        }
+    }
+
+    //both sides are known to be numbers
+    static final class NumAddNode extends BinaryNode {
+        NumAddNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return evaluateNumber(interpreter);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            double a = left.evaluateNumber(interpreter);
+            return a + right.evaluateNumber(interpreter);
+        }
+
+        @Override
+        boolean isNumber(){
+            return true;
+        }
+    }
+
+    static final class SubtractNode extends ArithmeticNode {
+        SubtractNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        double apply(double a,double b){
+            return a - b;
+        }
+
+        @Override
+        boolean isNumber(){
+            return true;
+        }
+    }
+
+    static final class MultiplyNode extends ArithmeticNode {
+        MultiplyNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        double apply(double a,double b){
+            return a * b;
+        }
+
+        @Override
+        boolean isNumber(){
+            return true;
+        }
+    }
+
+    static final class DivideNode extends ArithmeticNode {
+        DivideNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        double apply(double a,double b){
+            if(b==0){
+                //reports the division by zero
+                return number(Interpreter.binary(operator,a,b));
+            }
+            return a / b;
+        }
+
+        @Override
+        boolean isNumber(){
+            return true;
+        }
+    }
+
+    //< <= > >= == !=,compares unboxed numbers while both sides are numbers
+    abstract static class CompareNode extends BinaryNode {
+        //cleared the first time an operand is not a number
+        private boolean numeric = true;
+
+        CompareNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        abstract boolean compare(double a,double b);
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            if(numeric){
+                double a;
+                try{
+                    a = left.evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    return Interpreter.binary(operator,notNumber.value,right.evaluate(interpreter));
+                }
+                double b;
+                try{
+                    b = right.evaluateNumber(interpreter);
+                }catch (NotNumber notNumber){
+                    numeric = false;
+                    return Interpreter.binary(operator,a,notNumber.value);
+                }
+                return compare(a,b);
+            }
+            Object a = left.evaluate(interpreter);
+            Object b = right.evaluate(interpreter);
+            if(a instanceof Double && b instanceof Double){
+                return compare((double)a,(double)b);
+            }
+            return Interpreter.binary(operator,a,b);
+        }
+    }
+
+    static final class LessNode extends CompareNode {
+        LessNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return a < b;
+        }
+    }
+
+    static final class NumLessNode extends BinaryNode {
+        NumLessNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            double a = left.evaluateNumber(interpreter);
+            return a < right.evaluateNumber(interpreter);
+        }
+    }
+
+    static final class LessEqualNode extends CompareNode {
+        LessEqualNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return a <= b;
+        }
+    }
+
+    static final class GreaterNode extends CompareNode {
+        GreaterNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return a > b;
+        }
+    }
+
+    static final class GreaterEqualNode extends CompareNode {
+        GreaterEqualNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return a >= b;
+        }
+    }
+
+    //numbers are equal like Double.equals,which isEqual uses
+    static final class EqualNode extends CompareNode {
+        EqualNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return Double.doubleToLongBits(a)==Double.doubleToLongBits(b);
+        }
+    }
+
+    static final class NotEqualNode extends CompareNode {
+        NotEqualNode(Token operator,ExprNode left,ExprNode right){
+            super(operator,left,right);
+        }
+
+        @Override
+        boolean compare(double a,double b){
+            return Double.doubleToLongBits(a)!=Double.doubleToLongBits(b);
+        }
+    }
+
+    static final class NegateNode extends ExprNode {
+        private final ExprNode right;
+
+        NegateNode(ExprNode right){
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return evaluateNumber(interpreter);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter){
+            try{
+                return -right.evaluateNumber(interpreter);
+            }catch (NotNumber notNumber){
+                return -(double)notNumber.value;
+            }
+        }
+
+        @Override
+        boolean isNumber(){
+            return true;
+        }
+    }
+
+    static final class NotNode extends ExprNode {
+        private final ExprNode right;
+
+        NotNode(ExprNode right){
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return !Interpreter.isTruthy(right.evaluate(interpreter));
+        }
+    }
+
+    static final class AndNode extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        AndNode(ExprNode left,ExprNode right){
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object value = left.evaluate(interpreter);
+            if(!Interpreter.isTruthy(value)) return value;
+            return right.evaluate(interpreter);
+        }
+    }
+
+    static final class OrNode extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        OrNode(ExprNode left,ExprNode right){
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object value = left.evaluate(interpreter);
+            if(Interpreter.isTruthy(value)) return value;
+            return right.evaluate(interpreter);
+        }
+    }
+
+    static final class CallNode extends ExprNode {
+        private final ExprNode callee;
+        private final ExprNode[] arguments;
+        private final Token paren;
+
+        //the call is what a return statement returns,see Interpreter.TAIL_CALL
+        private final boolean tail;
+
+        CallNode(ExprNode callee,ExprNode[] arguments,Token paren,boolean tail){
+            this.callee = callee;
+            this.arguments = arguments;
+            this.paren = paren;
+            this.tail = tail;
+        }
+
+        //last function whose arity matched here,it needs no further check
+        private Stmt.Function checked;
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object value = callee.evaluate(interpreter);
+            if(value instanceof LoxFunction){
+                LoxFunction function = (LoxFunction) value;
+                if(function.declaration==checked || function.arity()==arguments.length){
+                    checked = function.declaration;
+                    Environment frame = function.frame(interpreter);
+                    for(int i=0;i<arguments.length;i++){
+                        frame.values[i] = arguments[i].evaluate(interpreter);
+                    }
+                    if(tail) return interpreter.tailCall(function,frame);
+                    return function.run(interpreter,frame);
+                }
+            }
+            return interpreter.callValue(value,evaluateArguments(arguments,interpreter),paren);
+        }
+    }
+
+    //obj.method(...),the method is called with the receiver without binding it
+    static final class InvokeNode extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+        private final ExprNode[] arguments;
+        private final Token paren;
+        private final boolean tail;
+        private Stmt.Function checked;
+
+        InvokeNode(ExprNode object,Token name,InlineCache cache,ExprNode[] arguments,Token paren,boolean tail){
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+            this.arguments = arguments;
+            this.paren = paren;
+            this.tail = tail;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object receiver = object.evaluate(interpreter);
+            LoxFunction method = null;
+            Object callee = null;
+            if(receiver instanceof LoxInstance){
+                method = ((LoxInstance) receiver).method(name,cache);
+            }
+            if(method==null){
+                callee = interpreter.getProperty(receiver,name,cache);
+            }
+
+            LoxFunction function = method!=null ? method : callee instanceof LoxFunction ? (LoxFunction) callee : null;
+            if(function!=null && (function.declaration==checked || function.arity()==arguments.length)){
+                checked = function.declaration;
+                Environment frame = method!=null ? function.frame(interpreter,(LoxInstance) receiver) : function.frame(interpreter);
+                for(int i=0;i<arguments.length;i++){
+                    frame.values[i] = arguments[i].evaluate(interpreter);
+                }
+                if(tail) return interpreter.tailCall(function,frame);
+                return function.run(interpreter,frame);
+            }
+
+            Object[] values = evaluateArguments(arguments,interpreter);
+            if(method!=null){
+                return interpreter.invokeMethod(method,(LoxInstance) receiver,values,paren);
+            }
+            return interpreter.callValue(callee,values,paren);
+        }
+    }
+
+    //super.method(...),the method is looked up through Interpreter.superMethod
+    static final class SuperInvokeNode extends ExprNode {
+        private final Expr.Super expr;
+        private final ExprNode[] arguments;
+        private final Token paren;
+        private final boolean tail;
+        private Stmt.Function checked;
+
+        SuperInvokeNode(Expr.Super expr,ExprNode[] arguments,Token paren,boolean tail){
+            this.expr = expr;
+            this.arguments = arguments;
+            this.paren = paren;
+            this.tail = tail;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            LoxInstance receiver = (LoxInstance) interpreter.environment.getAt(expr.thisDepth,expr.thisSlot);
+            LoxFunction method = interpreter.superMethod(expr);
+            if(method.declaration==checked || method.arity()==arguments.length){
+                checked = method.declaration;
+                Environment frame = method.frame(interpreter,receiver);
+                for(int i=0;i<arguments.length;i++){
+                    frame.values[i] = arguments[i].evaluate(interpreter);
+                }
+                if(tail) return interpreter.tailCall(method,frame);
+                return method.run(interpreter,frame);
+            }
+            return interpreter.invokeMethod(method,receiver,evaluateArguments(arguments,interpreter),paren);
+        }
+    }
+
+    private static Object[] evaluateArguments(ExprNode[] arguments,Interpreter interpreter){
+        Object[] values = new Object[arguments.length];
+        for(int i=0;i<values.length;i++){
+            values[i] = arguments[i].evaluate(interpreter);
+        }
+        return values;
+    }
+
+    //anonymous function passed as an argument
+    static final class FunctionNode extends ExprNode {
+        private final Stmt.Function declaration;
+
+        FunctionNode(Stmt.Function declaration){
+            this.declaration = declaration;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return LoxFunction.capture(declaration,interpreter.environment);
+        }
+    }
+
+    static final class GetNode extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        GetNode(ExprNode object,Token name,InlineCache cache){
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return interpreter.getProperty(object.evaluate(interpreter),name,cache);
+        }
+    }
+
+    static final class SetNode extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+        private final InlineCache cache;
+
+        SetNode(ExprNode object,Token name,ExprNode value,InlineCache cache){
+            this.object = object;
+            this.name = name;
+            this.value = value;
+            this.cache = cache;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            Object instance = object.evaluate(interpreter);
+            if(!(instance instanceof LoxInstance)){
+                throw new RuntimeError(name,"Only instances have fields.");
+            }
+            Object result = value.evaluate(interpreter);
+            ((LoxInstance)instance).set(name,result,cache);
+            return result;
+        }
+    }
+
+    //expressions without a node of their own are run by the interpreter
+    static final class InterpretedNode extends ExprNode {
+        private final Expr expr;
+
+        InterpretedNode(Expr expr){
+            this.expr = expr;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter){
+            return expr.accept(interpreter);
+        }
+    }
+}
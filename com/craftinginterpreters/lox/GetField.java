@@ -8,27 +8,32 @@ class GetField implements LoxCallable{
 
     final Token name;
     final List<Stmt> body;
+    private final Stmt.GetField declaration;
     private Environment closure;
     final boolean staticField;
 
-    GetField(Environment closure,Token name,List<Stmt> body,boolean staticField){
+    GetField(Environment closure,Stmt.GetField declaration){
+        this(closure,declaration,declaration.staticField);
+    }
+
+    private GetField(Environment closure,Stmt.GetField declaration,boolean staticField){
         this.closure = closure;
-        this.name = name;
-        this.body = body;
+        this.declaration = declaration;
+        this.name = declaration.name;
+        this.body = declaration.body;
         this.staticField = staticField;
     }
 
     @Override
-    public Object call(Interpreter interpreter,List<Object> arguments){
-        Environment environment = new Environment(closure);
+    public Object call0(Interpreter interpreter){
+        Environment environment = new Environment(closure,declaration.slots);
 
-        try{
-            interpreter.executeBlock(body,environment);
-        }catch (Return returnValue){
-            return returnValue.value;
-        }
+        return interpreter.executeBody(body,environment);
+    }
 
-        return null;
+    @Override
+    public Object callN(Interpreter interpreter,Object[] arguments){
+        return call0(interpreter);
     }
 
     @Override
@@ -37,16 +42,16 @@ class GetField implements LoxCallable{
     }
 
     GetField bind(LoxInstance instance){
-        Environment environment = new Environment(closure);
-        environment.define("this",instance);
-        return new GetField(environment,name,body,false);
+        Environment environment = new Environment(closure,declaration.thisSlots);
+        environment.define(0,instance);
+        return new GetField(environment,declaration,false);
     }
 
     GetField bindStatic(Environment staticEnvironment){
-        return new GetField(staticEnvironment,name,body,true);
+        return new GetField(staticEnvironment,declaration,true);
     }
 
     public boolean isStatic(){
         return staticField;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Polymorphic inline cache of one Expr.Get or Expr.Set.
+//Keyed by the shape of the instance,which also fixes its class,an entry
+//remembers what the name meant for that shape: the slot of the field,or
+//the method/getter when there is no field, and for sets the shape the
+//instance moves to. Sites that see more than MAX_ENTRIES shapes go
+//megamorphic and always take the slow path
+class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    //set with --ic-stats,the sites are kept only then
+    static boolean collectStats = false;
+    private static final List<InlineCache> sites = new ArrayList<>();
+
+    private final Token name;
+    private final String kind;
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final int[] slots = new int[MAX_ENTRIES];
+    private final Object[] members = new Object[MAX_ENTRIES];
+    private final Shape[] targets = new Shape[MAX_ENTRIES];
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    InlineCache(Token name,String kind){
+        this.name = name;
+        this.kind = kind;
+        if(collectStats){
+            sites.add(this);
+        }
+    }
+
+    //index of the entry for shape,-1 on a miss
+    int lookup(Shape shape){
+        for(int i=0;i<count;i++){
+            if(shapes[i]==shape){
+                hits++;
+                return i;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    //-1 when the site is megamorphic and nothing is cached
+    int add(Shape shape,int slot,Object member,Shape target){
+        if(megamorphic) return -1;
+        if(count==MAX_ENTRIES){
+            megamorphic = true;
+            for(int i=0;i<count;i++){
+                shapes[i] = null;
+                members[i] = null;
+                targets[i] = null;
+            }
+            count = 0;
+            return -1;
+        }
+        shapes[count] = shape;
+        slots[count] = slot;
+        members[count] = member;
+        targets[count] = target;
+        return count++;
+    }
+
+    //slot of the field,-1 when the entry is a method or getter
+    int slot(int entry){
+        return slots[entry];
+    }
+
+    Object member(int entry){
+        return members[entry];
+    }
+
+    Shape target(int entry){
+        return targets[entry];
+    }
+
+    //printed to stderr at exit with --ic-stats,sites with most misses first
+    static void printStats(){
+        List<InlineCache> sorted = new ArrayList<>(sites);
+        sorted.sort((a,b) -> Long.compare(b.misses,a.misses));
+        for(InlineCache site : sorted){
+            if(site.hits==0 && site.misses==0) continue;
+            System.err.printf("[ic] line %d %s .%s: %d hits, %d misses, %s%n",
+                    site.name.line,site.kind,site.name.lexeme,site.hits,site.misses,
+                    site.megamorphic ? "megamorphic" : site.count + " shapes");
+        }
+    }
+}
@@ -1,59 +1,102 @@
 package com.craftinginterpreters.lox;
 import static com.craftinginterpreters.lox.TokenType.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 
-class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
+class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Completion>{
 
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr,Integer> locals = new HashMap<>();
-
-    private boolean breakIt = false;
-    private boolean ifBlock = false;
-
-    public Interpreter(){
-        globals.define("clock",new LoxCallable(){
-            @Override
-            public int arity() {return 0;}
+    Environment environment = globals;
+
+    boolean ifBlock = false;
+    //loop iterations so far,the jit uses it to find hot functions and
+    //--alloc-stats prints the bytes per iteration
+    long backEdges = 0;
+
+    //set when the statements run as closure compiled nodes instead of visitors
+    private ClosureCompiler compiler = null;
+    //value of the last return statement,see Completion.RETURN
+    Object returnValue = null;
+
+    //a return of a call in tail position leaves the call here and returns
+    //TAIL_CALL instead of making it,LoxFunction.run then makes the call
+    static final Object TAIL_CALL = new Object();
+    LoxFunction tailFunction = null;
+    Environment tailFrame = null;
+
+    //frames of functions with Stmt.Function.reuseFrame set,calls nest so
+    //they are taken and given back like a stack
+    private Environment[] frames = new Environment[64];
+    private int frameTop = 0;
+
+    //native functions,shared with the vm
+    static final LoxCallable clock = new LoxCallable(){
+        @Override
+        public int arity() {return 0;}
+
+        @Override
+        public Object call0(Interpreter interpreter){
+            return (double)System.currentTimeMillis() / 1000.0;
+        }
 
-            @Override
-            public Object call(Interpreter interpreter,List<Object> arguments){
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+        @Override
+        public Object callN(Interpreter interpreter,Object[] arguments){
+            return call0(interpreter);
+        }
 
-            @Override
-            public String toString() {return "<native fn>";}
-        });
-    }
+        @Override
+        public String toString() {return "<native fn>";}
+    };
 
-    void resolve(Expr expr,int depth){
-        locals.put(expr,depth);
+    public Interpreter(){
+        globals.define("clock",clock);
     }
 
-    void showResolved(){
-        for(Map.Entry<Expr,Integer> entry: locals.entrySet()){
-            System.out.println(entry.getKey() + " = " + entry.getValue());
-        }
+    void useClosureCompiler(){
+        compiler = new ClosureCompiler();
     }
 
     void interpret(List<Stmt> statements){
+        //a runtime error of the last line left its frames taken
+        frameTop = 0;
         try {
             for(Stmt statement : statements){
-                execute(statement);
+                //a return outside of any function still unwinds the whole program
+                if(execute(statement)==Completion.RETURN){
+                    throw new Return(takeReturnValue());
+                }
             }
         }catch (RuntimeError error){
             Lox.runtimeError(error);
         }
     }
 
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Completion execute(Stmt stmt){
+        if(compiler!=null){
+            return compiled(stmt).execute(this);
+        }
+        return stmt.accept(this);
+    }
+
+    private StmtNode compiled(Stmt stmt){
+        StmtNode node = stmt.compiled;
+        if(node==null){
+            node = compiler.compile(stmt);
+            stmt.compiled = node;
+        }
+        return node;
     }
 
-    private String stringify(Object object){
+    private Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    static String stringify(Object object){
         if(object==null) return "nil";
 
         if(object instanceof Double){
@@ -68,7 +111,7 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
+    public Completion visitExpressionStmt(Stmt.Expression stmt){
         Expr expression = (Expr) stmt.expression;
         if(!(expression instanceof Expr.Assign) && !(expression instanceof Expr.Call) &&
             !(expression instanceof Expr.Variable) && !(expression instanceof Expr.Set)){
@@ -78,84 +121,139 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
                 System.out.println(val);
             }
         }
+        else if(expression instanceof Expr.Assign){
+            //nobody reads the value,a number is stored without boxing it
+            assign((Expr.Assign) expression);
+        }
         else {
             evaluate(stmt.expression);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt){
+    public Completion visitPrintStmt(Stmt.Print stmt){
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt){
+    public Completion visitVarStmt(Stmt.Var stmt){
+        //a local that starts as a number is kept unboxed in the frame
+        if(stmt.numeric && stmt.slot!=-1 && !stmt.cell && stmt.initializer!=null){
+            double number;
+            try{
+                number = evaluateNumber(stmt.initializer);
+            }catch (ExprNode.NotNumber notNumber){
+                stmt.numeric = false;
+                environment.define(stmt.slot,notNumber.value);
+                return Completion.NORMAL;
+            }
+            environment.setNumber(stmt.slot,number);
+            return Completion.NORMAL;
+        }
+        if(stmt.cell){
+            //the cell is in the slot before the initializer runs,a closure
+            //made in the initializer captures it
+            Environment.Cell cell = new Environment.Cell(null);
+            environment.define(stmt.slot,cell);
+            if(stmt.initializer!=null) cell.value = evaluate(stmt.initializer);
+            return Completion.NORMAL;
+        }
         Object value = null;
         if(stmt.initializer !=null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme,value);
-        return null;
+        define(stmt.slot,stmt.name,value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitStaticVarStmt(Stmt.StaticVar stmt){
+    public Completion visitStaticVarStmt(Stmt.StaticVar stmt){
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme,value);
-        return null;
+        define(stmt.slot,stmt.name,value);
+        return Completion.NORMAL;
+    }
+
+    //slot -1 means the resolver left the name to the globals
+    private void define(int slot,Token name,Object value){
+        if(slot==-1){
+            globals.define(name.lexeme,value);
+        }else{
+            environment.define(slot,value);
+        }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt){
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt){
+        if(!stmt.newFrame) return executeBlock(stmt.statements,environment);
+        return executeBlock(stmt.statements, new Environment(environment,stmt.slots));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt){
+    public Completion visitIfStmt(Stmt.If stmt){
         Object value = evaluate(stmt.condition);
+        Completion completion = Completion.NORMAL;
         if(isTruthy(value)){
             ifBlock = true;
-            execute(stmt.thenBranch);
-            ifBlock =false;
+            completion = execute(stmt.thenBranch);
         }else if(stmt.elseBranch!=null){
             ifBlock = true;
-            execute(stmt.elseBranch);
-            ifBlock = false;
+            completion = execute(stmt.elseBranch);
+        }else{
+            return completion;
         }
-        return null;
+        //a return out of a branch leaves ifBlock set
+        if(completion!=Completion.RETURN) ifBlock = false;
+        return completion;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt){
+    public Completion visitWhileStmt(Stmt.While stmt){
         Expr condition = (Expr) stmt.condition;
         Object result = evaluate(condition);
         while (isTruthy(result)){
-            execute(stmt.statement);
-            if(breakIt){
-                breakIt=false;
-                break;
-            }
+            Completion completion = execute(stmt.statement);
+            if(completion==Completion.RETURN) return completion;
+            if(completion==Completion.BREAK) break;
+            backEdges++;
             result = evaluate(condition);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt){
-        breakIt = true;
-        return null;
+    public Completion visitForStmt(Stmt.For stmt){
+        Environment previous = environment;
+        environment = new Environment(environment,stmt.slots);
+        try{
+            if(stmt.initializer!=null) execute(stmt.initializer);
+            while (isTruthy(evaluate(stmt.condition))){
+                Completion completion = execute(stmt.body);
+                if(completion==Completion.RETURN) return completion;
+                if(completion==Completion.BREAK) break;
+                if(stmt.increment!=null) execute(stmt.increment);
+                backEdges++;
+            }
+        }finally {
+            environment = previous;
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitBreakStmt(Stmt.Break stmt){
+        //a break the resolver found outside of a loop does nothing
+        return stmt.loop ? Completion.BREAK : Completion.NORMAL;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt){
+    public Completion visitClassStmt(Stmt.Class stmt){
 
         //Superclass first
         Object superclass = null;
@@ -167,29 +265,30 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
             }
         }
 
-        environment.define(stmt.name.lexeme,null);
+        Environment.Cell cell = stmt.cell ? new Environment.Cell(null) : null;
+        define(stmt.slot,stmt.name,cell);
         if(stmt.superclass!=null){
-            environment = new Environment(environment);
-            environment.define("super",superclass);
+            environment = new Environment(environment,1);
+            environment.define(0,superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         Map<String, GetField> getFields = new HashMap<>();
-        Environment staticEnvironment = new Environment(environment);
+        Environment staticEnvironment = new Environment(environment,stmt.staticSlots);
         for(Stmt field : stmt.methods){
             if(field instanceof Stmt.Function){
                 Stmt.Function func = (Stmt.Function) field;
                 LoxFunction function = new LoxFunction(func,environment,func.name.lexeme.equals("init"));
                 if(func.staticMethod){
-                    staticEnvironment.define(func.name.lexeme,function);
+                    staticEnvironment.define(func.slot,function);
                 }
                 methods.put(func.name.lexeme,function);
             }
             else if(field instanceof Stmt.GetField){
                 Stmt.GetField fieldObj = (Stmt.GetField) field;
-                GetField fieldInner = new GetField(environment,fieldObj.name,fieldObj.body,fieldObj.staticField);
+                GetField fieldInner = new GetField(environment,fieldObj);
                 if(fieldObj.staticField){
-                    staticEnvironment.define(fieldObj.name.lexeme,fieldInner);
+                    staticEnvironment.define(fieldObj.slot,fieldInner);
                 }
                 getFields.put(fieldObj.name.lexeme,fieldInner);
             }
@@ -199,39 +298,58 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
                 if(varObj.initializer !=null){
                     value = evaluate(varObj.initializer);
                 }
-                staticEnvironment.define(varObj.name.lexeme,value);
+                staticEnvironment.define(varObj.slot,value);
             }
         }
         LoxClass klass = new LoxClass(stmt.name.lexeme,(LoxClass)superclass,methods,getFields,staticEnvironment);
         if(superclass!=null){
             environment = environment.enclosing;
         }
-        environment.assign(stmt.name,klass);
-        return null;
+        if(stmt.slot==-1){
+            globals.assign(stmt.name,klass);
+        }else if(cell!=null){
+            cell.value = klass;
+        }else{
+            environment.define(stmt.slot,klass);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt){
-        LoxFunction function = new LoxFunction(stmt,environment,false);
-        environment.define(stmt.name.lexeme,function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt){
+        if(stmt.cell){
+            //the function captures its own cell,it has to be there first
+            Environment.Cell cell = new Environment.Cell(null);
+            environment.define(stmt.slot,cell);
+            cell.value = LoxFunction.capture(stmt,environment);
+            return Completion.NORMAL;
+        }
+        define(stmt.slot,stmt.name,LoxFunction.capture(stmt,environment));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitGetField(Stmt.GetField stmt){
+    public Completion visitGetField(Stmt.GetField stmt){
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr){
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance,"super");
+        LoxInstance object = (LoxInstance) environment.getAt(expr.thisDepth,expr.thisSlot);
 
-        //"this" is always one level nearer than "supe"'s environment
-        LoxInstance object = (LoxInstance) environment.getAt(distance-1,"this");
+        return superMethod(expr).bind(object);
+    }
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    //the method super.name stands for,a super expression always sees the
+    //same superclass unless its class declaration runs again
+    LoxFunction superMethod(Expr.Super expr){
+        LoxClass superclass = (LoxClass) environment.getAt(expr.depth,expr.slot);
+        if(superclass!=expr.superclass){
+            expr.superclass = superclass;
+            expr.resolved = superclass.findMethod(expr.method.lexeme);
+        }
+        LoxFunction method = expr.resolved;
         if(method.isStaticMethod()){
             throw new RuntimeError(expr.method,"Can't call static method this way.");
         }
@@ -240,29 +358,42 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
                     "Undefined property '" + expr.method.lexeme + "'.");
         }
 
-        return method.bind(object);
+        return method;
     }
 
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Completion visitReturnStmt(Stmt.Return stmt){
         Object value = null;
-        if(stmt.value !=null) value = evaluate(stmt.value);
+        if(stmt.tail) value = call((Expr.Call) stmt.value,true);
+        else if(stmt.value !=null) value = evaluate(stmt.value);
+
+        returnValue = value;
+        return Completion.RETURN;
+    }
 
-        throw new Return(value);
+    //runs the body of a function or getter,gives back the returned value or nil
+    Object executeBody(List<Stmt> body,Environment environment){
+        if(executeBlock(body,environment)==Completion.RETURN){
+            return takeReturnValue();
+        }
+        return null;
     }
 
-    void executeBlock(List<Stmt> statements,Environment environment){
+    Completion executeBlock(List<Stmt> statements,Environment environment){
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for(Stmt statement : statements){
-                execute(statement);
+            //indexed,a loop body runs this every iteration and an iterator is not always optimized away
+            for(int i=0;i<statements.size();i++){
+                Completion completion = execute(statements.get(i));
+                if(completion!=Completion.NORMAL) return completion;
             }
 
         }finally {
             this.environment = previous;
         }
+        return Completion.NORMAL;
     }
 
     @Override
@@ -279,52 +410,55 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name,value);
+        ((LoxInstance)object).set(expr.name,value,expr.cache);
         return value;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr){
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object),expr.name,expr.cache);
+    }
+
+    Object getProperty(Object object,Token name,InlineCache cache){
         if(object==null){
-            throw new RuntimeError(expr.name,"Undefined instance");
+            throw new RuntimeError(name,"Undefined instance");
         }
         if(object instanceof LoxInstance){
             LoxInstance objInner = (LoxInstance) object;
-            Object calledObj = objInner.get(expr.name);
+            Object calledObj = objInner.get(name,cache);
             if(calledObj instanceof GetField){
-                return ((GetField)calledObj).call(this,null);
+                return ((GetField)calledObj).call0(this);
             }
             return calledObj;
         }
         if(object instanceof LoxClass){
             LoxClass loxObj = (LoxClass) object;
-            LoxFunction func = (loxObj.findMethod(expr.name.lexeme));
-            GetField fieldInner = (loxObj.findGetField(expr.name.lexeme));
+            LoxFunction func = (loxObj.findMethod(name.lexeme));
+            GetField fieldInner = (loxObj.findGetField(name.lexeme));
             if(func==null && fieldInner==null){
-                throw new RuntimeError(expr.name,"Static field does not exists.");
+                throw new RuntimeError(name,"Static field does not exists.");
             }
             else{
                 if(func==null){
                     if(!fieldInner.isStatic()){
-                        throw new RuntimeError(expr.name,"Can only call static method this way.");
+                        throw new RuntimeError(name,"Can only call static method this way.");
                     }
-                    return ( fieldInner.bindStatic(loxObj.staticEnvironment)).call(this,null);
+                    return ( fieldInner.bindStatic(loxObj.staticEnvironment)).call0(this);
                 }
                 else if(fieldInner==null){
                     if(!func.isStaticMethod()) {
-                        throw new RuntimeError(expr.name, "Can only call static method this way.");
+                        throw new RuntimeError(name, "Can only call static method this way.");
                     }
                     return func.bindStatic(loxObj.staticEnvironment);
                 }
             }
         }
-        throw new RuntimeError(expr.name,"Only instances have properties.");
+        throw new RuntimeError(name,"Only instances have properties.");
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return lookupVariable(expr.keyword,expr.depth,expr.slot);
     }
 
     @Override
@@ -365,37 +499,126 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
     }
     @Override
     public Object visitCallExpr(Expr.Call expr){
-        Object callee = evaluate(expr.callee);
-        List<Object> arguments = new ArrayList<>();
-        for(Stmt argument : expr.arguments){
-            //System.out.println(argument);
-            if(argument instanceof Stmt.Function){
-                //arguments.add(execute(argument));
-                Stmt.Function argFun = (Stmt.Function) argument;
-                LoxFunction function = new LoxFunction(argFun,environment,false);
-                arguments.add(function);
+        return call(expr,false);
+    }
+
+    private Object call(Expr.Call expr,boolean tail){
+        //obj.method(...) calls the method with the receiver,the bound
+        //function is only made when the method is used as a value
+        LoxInstance receiver = null;
+        LoxFunction method = null;
+        Object callee = null;
+        if(expr.callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if(object instanceof LoxInstance){
+                receiver = (LoxInstance) object;
+                method = receiver.method(get.name,get.cache);
             }
-            else if(argument instanceof Stmt.Expression){
-                Stmt.Expression arg =(Stmt.Expression) argument;
-                arguments.add(evaluate(arg.expression));
+            if(method==null){
+                callee = getProperty(object,get.name,get.cache);
             }
-            //arguments.add(evaluate(argument));
+        }else if(expr.callee instanceof Expr.Super){
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            receiver = (LoxInstance) environment.getAt(superExpr.thisDepth,superExpr.thisSlot);
+            method = superMethod(superExpr);
+        }else{
+            callee = evaluate(expr.callee);
+        }
+        int count = expr.arguments.size();
+
+        //a function that takes this many arguments gets them evaluated straight into its frame
+        LoxFunction function = method!=null ? method : callee instanceof LoxFunction ? (LoxFunction) callee : null;
+        if(function!=null && (function.declaration==expr.checked || function.arity()==count)){
+            expr.checked = function.declaration;
+            Environment frame = method!=null ? function.frame(this,receiver) : function.frame(this);
+            for(int i=0;i<count;i++){
+                frame.values[i] = argument(expr.arguments.get(i));
+            }
+            if(tail) return tailCall(function,frame);
+            return function.run(this,frame);
+        }
+
+        Object[] arguments = new Object[count];
+        for(int i=0;i<count;i++){
+            arguments[i] = argument(expr.arguments.get(i));
         }
+        if(method!=null){
+            return invokeMethod(method,receiver,arguments,expr.paren);
+        }
+        return callValue(callee,arguments,expr.paren);
+    }
+
+    Environment acquireFrame(Environment enclosing,int size){
+        if(frameTop==frames.length){
+            frames = Arrays.copyOf(frames,frameTop * 2);
+        }
+        Environment frame = frames[frameTop];
+        if(frame==null || frame.values.length<size){
+            frame = new Environment(enclosing,size);
+            frames[frameTop] = frame;
+        }else{
+            frame.enclosing = enclosing;
+        }
+        frameTop++;
+        return frame;
+    }
+
+    //gives back the frame on top,size is how many of its slots were used
+    void releaseFrame(int size){
+        Environment frame = frames[--frameTop];
+        Arrays.fill(frame.values,0,size,null);
+        frame.enclosing = null;
+    }
+
+    //a tail call from one reused frame into another,the callee's frame
+    //on top takes the place of the caller's
+    void replaceFrame(int size){
+        Environment callee = frames[frameTop - 1];
+        frames[frameTop - 1] = frames[frameTop - 2];
+        frames[frameTop - 2] = callee;
+        releaseFrame(size);
+    }
+
+    Object tailCall(LoxFunction function,Environment frame){
+        tailFunction = function;
+        tailFrame = frame;
+        return TAIL_CALL;
+    }
+
+    private Object argument(Stmt argument){
+        if(argument instanceof Stmt.Function){
+            Stmt.Function argFun = (Stmt.Function) argument;
+            return LoxFunction.capture(argFun,environment);
+        }
+        Stmt.Expression arg =(Stmt.Expression) argument;
+        return evaluate(arg.expression);
+    }
 
+    Object callValue(Object callee,Object[] arguments,Token paren){
         if(!(callee instanceof LoxCallable)){
-            throw new RuntimeError(expr.paren,"Can only call functions and classes");
+            throw new RuntimeError(paren,"Can only call functions and classes");
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if(arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren,"Expected " +
+        checkArity(function,arguments.length,paren);
+        return function.callN(this,arguments);
+    }
+
+    Object invokeMethod(LoxFunction method,LoxInstance receiver,Object[] arguments,Token paren){
+        checkArity(method,arguments.length,paren);
+        return method.invoke(this,receiver,arguments);
+    }
+
+    private static void checkArity(LoxCallable function,int count,Token paren){
+        if(count != function.arity()){
+            throw new RuntimeError(paren,"Expected " +
                     function.arity() + " arguments bug got" +
-                    arguments.size() + ".");
+                    count + ".");
         }
-        return function.call(this,arguments);
     }
 
-    private boolean isTruthy(Object object){
+    static boolean isTruthy(Object object){
         if(object==null) return false;
         if(object instanceof Boolean) return (boolean) object;
         return true;
@@ -403,55 +626,180 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr){
+        if(expr.numeric){
+            switch (expr.operator.type){
+                case PLUS: case MINUS: case STAR: case SLASH:
+                    try{
+                        return arithmetic(expr);
+                    }catch (ExprNode.NotNumber notNumber){
+                        return notNumber.value;
+                    }
+                case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                case EQUAL_EQUAL: case BANG_EQUAL:
+                    return compare(expr);
+            }
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
+        return binary(expr.operator,left,right);
+    }
+
+    //the tree walking form of ExprNode.evaluateNumber,the value of an
+    //expression that usually is a number without boxing it.Anything else
+    //comes out as NotNumber with the value evaluate would have given
+    private double evaluateNumber(Expr expr){
+        if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            if(binary.numeric){
+                switch (binary.operator.type){
+                    case PLUS: case MINUS: case STAR: case SLASH:
+                        return arithmetic(binary);
+                }
+            }
+        }else if(expr instanceof Expr.Variable){
+            Expr.Variable variable = (Expr.Variable) expr;
+            if(!variable.cell){
+                Environment frame;
+                int slot;
+                if(variable.depth==-1){
+                    if(variable.global==-1) variable.global = globals.slot(variable.name);
+                    frame = globals;
+                    slot = variable.global;
+                }else{
+                    frame = environment.ancestor(variable.depth);
+                    slot = variable.slot;
+                }
+                if(frame.values[slot]==Environment.NUMBER) return frame.numbers[slot];
+            }
+        }else if(expr instanceof Expr.Literal){
+            return ExprNode.number(((Expr.Literal) expr).value);
+        }else if(expr instanceof Expr.Grouping){
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        }else if(expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type==MINUS){
+            try{
+                return -evaluateNumber(((Expr.Unary) expr).right);
+            }catch (ExprNode.NotNumber notNumber){
+                return -(double)notNumber.value;
+            }
+        }
+        return ExprNode.number(evaluate(expr));
+    }
+
+    //+ - * / while both operands are numbers,the first one that is not
+    //finishes through binary and the node stays generic from then on
+    private double arithmetic(Expr.Binary expr){
+        double a;
+        try{
+            a = evaluateNumber(expr.left);
+        }catch (ExprNode.NotNumber notNumber){
+            expr.numeric = false;
+            return ExprNode.number(binary(expr.operator,notNumber.value,evaluate(expr.right)));
+        }
+        double b;
+        try{
+            b = evaluateNumber(expr.right);
+        }catch (ExprNode.NotNumber notNumber){
+            expr.numeric = false;
+            return ExprNode.number(binary(expr.operator,a,notNumber.value));
+        }
+        switch (expr.operator.type){
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case STAR:
+                return a * b;
+            default:
+                //binary reports the division by zero
+                if(b==0) return ExprNode.number(binary(expr.operator,a,b));
+                return a / b;
+        }
+    }
+
+    //< <= > >= == != of two unboxed numbers,same fallback as arithmetic
+    private Object compare(Expr.Binary expr){
+        double a;
+        try{
+            a = evaluateNumber(expr.left);
+        }catch (ExprNode.NotNumber notNumber){
+            expr.numeric = false;
+            return binary(expr.operator,notNumber.value,evaluate(expr.right));
+        }
+        double b;
+        try{
+            b = evaluateNumber(expr.right);
+        }catch (ExprNode.NotNumber notNumber){
+            expr.numeric = false;
+            return binary(expr.operator,a,notNumber.value);
+        }
         switch (expr.operator.type){
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return checkLiterals(expr.operator,left,right);
+                return a > b;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return checkLiterals(expr.operator,left,right);
+                return a >= b;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return checkLiterals(expr.operator,left,right);
+                return a < b;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return checkLiterals(expr.operator,left,right);
+                return a <= b;
+            case EQUAL_EQUAL:
+                return Double.doubleToLongBits(a)==Double.doubleToLongBits(b);
+            default:
+                return Double.doubleToLongBits(a)!=Double.doubleToLongBits(b);
+        }
+    }
+
+    //the vm falls back to this one for everything but plain numbers
+    static Object binary(Token operator,Object left,Object right){
+        //only "+" keeps strings as ropes,see Rope
+        if(operator.type!=PLUS){
+            left = Rope.flat(left);
+            right = Rope.flat(right);
+        }
+        switch (operator.type){
+            case GREATER:
+                checkNumberOperands(operator, left, right);
+                return checkLiterals(operator,left,right);
+            case GREATER_EQUAL:
+                checkNumberOperands(operator, left, right);
+                return checkLiterals(operator,left,right);
+            case LESS:
+                checkNumberOperands(operator, left, right);
+                return checkLiterals(operator,left,right);
+            case LESS_EQUAL:
+                checkNumberOperands(operator, left, right);
+                return checkLiterals(operator,left,right);
             case BANG_EQUAL:
                 return !isEqual(left,right);
             case EQUAL_EQUAL:
                 return isEqual(left,right);
             case MINUS:
-                checkNumberOperand(expr.operator,right);
+                checkNumberOperand(operator,right);
                 return (double)left - (double)right;
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 double val = (double) right;
                 if(val!=0){
                     return (double) left / val;
                 }
                 else{
-                    throw new RuntimeError(expr.operator,"Division by 0 is forbidden!!!");
+                    throw new RuntimeError(operator,"Division by 0 is forbidden!!!");
                 }
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
             case PLUS:
                 if(left instanceof Double && right instanceof Double){
                     return (double)left + (double)right;
                 }
-                if(left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                if(Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concat(left,right);
                 }
-                if(left instanceof String && right instanceof Double){
-                    String str = (String) left;
+                if(Rope.isString(left) && right instanceof Double){
                     double dblval = (double) right;
-                    str = str.concat(String.valueOf((int)dblval));
-                    return str;
+                    return Rope.concat(left,String.valueOf((int)dblval));
                 }
-                throw new RuntimeError(expr.operator,"Operands must be two numbers or two strings.");
+                throw new RuntimeError(operator,"Operands must be two numbers or two strings.");
         }
 
         //Unreachable
@@ -460,14 +808,19 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
-        return lookupVariable(expr.name,expr);
-        //return environment.get(expr.name);
+        if(expr.cell){
+            return ((Environment.Cell) environment.getAt(expr.depth,expr.slot)).value;
+        }
+        if(expr.depth==-1){
+            if(expr.global==-1) expr.global = globals.slot(expr.name);
+            return globals.get(expr.global,expr.name);
+        }
+        return environment.getAt(expr.depth,expr.slot);
     }
 
-    private Object lookupVariable(Token name,Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance!=null){
-            return environment.getAt(distance,name.lexeme);
+    private Object lookupVariable(Token name,int depth,int slot){
+        if(depth!=-1){
+            return environment.getAt(depth,slot);
         }else{
             return globals.get(name);
         }
@@ -477,35 +830,64 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
     @Override
     public Object visitAssignExpr(Expr.Assign expr){
         Object value = evaluate(expr.value);
+        store(expr,value);
+        return value;
+    }
 
-        Integer distance = locals.get(expr);
-        if(distance!=null){
-            environment.assignAt(distance,expr.name,value);
+    //an assignment whose value is not used,numbers go into the slot unboxed
+    private void assign(Expr.Assign expr){
+        if(!expr.numeric || expr.cell){
+            store(expr,evaluate(expr.value));
+            return;
+        }
+        double value;
+        try{
+            value = evaluateNumber(expr.value);
+        }catch (ExprNode.NotNumber notNumber){
+            expr.numeric = false;
+            store(expr,notNumber.value);
+            return;
+        }
+        if(expr.depth!=-1){
+            environment.ancestor(expr.depth).setNumber(expr.slot,value);
         }else{
-            globals.assign(expr.name,value);
+            if(expr.global==-1) expr.global = globals.slot(expr.name);
+            globals.setNumber(expr.global,value);
+        }
+    }
+
+    private void store(Expr.Assign expr,Object value){
+        if(expr.cell){
+            ((Environment.Cell) environment.getAt(expr.depth,expr.slot)).value = value;
+        }else if(expr.depth!=-1){
+            environment.assignAt(expr.depth,expr.slot,value);
+        }else{
+            if(expr.global==-1) expr.global = globals.slot(expr.name);
+            globals.values[expr.global] = value;
         }
-        return value;
     }
 
-    private boolean isEqual(Object a,Object b){
+    static boolean isEqual(Object a,Object b){
         if(a==null && b==null) return true;
         if(a==null) return false;
+        a = Rope.flat(a);
+        b = Rope.flat(b);
 
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator,Object operand){
+    private static void checkNumberOperand(Token operator,Object operand){
         if(operand instanceof Double) return;
         throw new RuntimeError(operator,"Operand must be a number");
     }
 
-    private void checkNumberOperands(Token operator,Object left,Object right){
+    private static void checkNumberOperands(Token operator,Object left,Object right){
         if(left instanceof Double && right instanceof Double) return;
         if(left instanceof String && right instanceof String) return;
         throw new RuntimeError(operator,"Operands must be numbers or strings");
     }
 
-    private boolean checkLiterals(Token operator,Object left,Object right){
+    private static boolean checkLiterals(Token operator,Object left,Object right){
         if(left instanceof Double && right instanceof Double){
             switch (operator.type){
                 case GREATER:
@@ -549,7 +931,7 @@ class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         return false;
     }
 
-    private int compareStrings(String left,String right){
+    private static int compareStrings(String left,String right){
         for(int i=0;i<left.length() && i<right.length();i++){
             if(left.charAt(i) != right.charAt(i)){
                 return left.charAt(i) < right.charAt(i) ? -1 : 1;
@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+//Jit tier for LoxFunction,turned on with --jit.
+//Calls and loop iterations make a function hot,once it passes THRESHOLD
+//JitCompiler turns it into a hidden class that HotSpot can optimize like
+//any other java code.Functions that are never hot are never compiled
+class Jit {
+
+    static boolean enabled = false;
+    static final long THRESHOLD = 1000;
+    //a function that deopts this often goes back to the interpreter for good
+    private static final int MAX_DEOPTS = 10;
+
+    //returned by call when the interpreter has to run the function
+    static final Object INTERPRET = new Object();
+
+    static final class Deopt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Deopt(){
+            super(null,null,false,false);
+        }
+    }
+
+    //thrown by the compiled code,see JitCompiler
+    static final Deopt DEOPT = new Deopt();
+
+    static final class Compiled {
+        final JitCode code;
+        final boolean selfCalls;
+        final Token name;
+        final long compileNanos;
+        long calls = 0;
+        int deopts = 0;
+        //global slot of the function's name,-1 until it is found
+        int selfSlot = -1;
+
+        Compiled(JitCode code,boolean selfCalls,Token name,long compileNanos){
+            this.code = code;
+            this.selfCalls = selfCalls;
+            this.name = name;
+            this.compileNanos = compileNanos;
+        }
+    }
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final List<Compiled> promoted = new ArrayList<>();
+    private static final List<Token> rejected = new ArrayList<>();
+
+    static Object call(Stmt.Function declaration,Interpreter interpreter,Object[] arguments){
+        Compiled compiled = declaration.jit;
+        if(compiled==null){
+            if(declaration.jitRejected || ++declaration.heat<THRESHOLD) return INTERPRET;
+            compiled = compile(declaration);
+            if(compiled==null) return INTERPRET;
+        }
+
+        //the arguments are the first slots of the frame
+        for(int i=0;i<declaration.params.size();i++){
+            if(!(arguments[i] instanceof Double)) return INTERPRET;
+        }
+        //recursive calls go straight to the compiled code,so the global
+        //name has to still be this function
+        if(compiled.selfCalls){
+            if(compiled.selfSlot==-1){
+                compiled.selfSlot = interpreter.globals.slotOf(declaration.name.lexeme);
+            }
+            Object self = compiled.selfSlot==-1 ? null : interpreter.globals.value(compiled.selfSlot);
+            if(!(self instanceof LoxFunction) || ((LoxFunction) self).declaration!=declaration){
+                return INTERPRET;
+            }
+        }
+
+        boolean ifBlock = interpreter.ifBlock;
+        compiled.calls++;
+        try{
+            return compiled.code.call(interpreter,arguments);
+        }catch (Deopt deopt){
+            interpreter.ifBlock = ifBlock;
+            if(++compiled.deopts>=MAX_DEOPTS){
+                declaration.jit = null;
+                declaration.jitRejected = true;
+            }
+            return INTERPRET;
+        }
+    }
+
+    private static Compiled compile(Stmt.Function declaration){
+        long start = System.nanoTime();
+        JitCompiler compiler = new JitCompiler(declaration);
+        byte[] bytes = compiler.compile();
+        JitCode code = null;
+        if(bytes!=null){
+            try{
+                MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes,true);
+                code = (JitCode) hidden.findConstructor(hidden.lookupClass(),MethodType.methodType(void.class)).invoke();
+            }catch (Throwable error){
+                code = null;
+            }
+        }
+        if(code==null){
+            declaration.jitRejected = true;
+            rejected.add(declaration.name);
+            return null;
+        }
+
+        Compiled compiled = new Compiled(code,compiler.selfCalls,declaration.name,System.nanoTime() - start);
+        declaration.jit = compiled;
+        promoted.add(compiled);
+        return compiled;
+    }
+
+    //printed to stderr at exit with --jit-stats
+    static void printStats(){
+        for(Compiled compiled : promoted){
+            System.err.printf("[jit] %s (line %d) promoted in %.3f ms, %d calls, %d deopts%s%n",
+                    compiled.name.lexeme,compiled.name.line,compiled.compileNanos / 1e6,
+                    compiled.calls,compiled.deopts,compiled.deopts>=MAX_DEOPTS ? ", dropped" : "");
+        }
+        for(Token name : rejected){
+            System.err.printf("[jit] %s (line %d) hot but not compilable%n",name.lexeme,name.line);
+        }
+    }
+}
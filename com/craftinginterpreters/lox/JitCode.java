@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+//Implemented by the classes the jit generates for hot functions.
+//The arguments are all numbers,Jit checks that before the call
+interface JitCode {
+    double call(Interpreter interpreter,Object[] arguments);
+}
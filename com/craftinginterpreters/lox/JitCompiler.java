@@ -0,0 +1,502 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.ClassFileWriter.*;
+
+//Compiles one function to a JVM class for the jit.
+//Only pure numeric functions are taken: parameters and locals are numbers,
+//no prints,no globals but the function's own name for recursive calls,
+//no closures or classes.Every value is an unboxed double,conditions are
+//plain jumps.Anything that would leave that subset at run time (division by
+//zero,returning nil) throws Jit.DEOPT and the interpreter runs the call again,
+//which is safe since the code has no side effects besides the ifBlock
+//flag,and that is restored by Jit
+class JitCompiler implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
+
+    static final String CLASS_NAME = "com/craftinginterpreters/lox/JitFunction";
+    private static final String INTERPRETER = "com/craftinginterpreters/lox/Interpreter";
+    private static final String DEOPT = "Lcom/craftinginterpreters/lox/Jit$Deopt;";
+
+    //thrown while compiling when the function is outside the subset
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(){
+            super(null,null,false,false);
+        }
+    }
+
+    private final Stmt.Function function;
+    private final String runDescriptor;
+    private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+    private ClassFileWriter.MethodWriter code;
+
+    //first jvm local of every frame the function body runs in,innermost last
+    private final List<Integer> frames = new ArrayList<>();
+    private int nextLocal;
+
+    //the code calls the function by its global name
+    boolean selfCalls = false;
+    //start of the body,tail calls to the function itself jump back here
+    private final ClassFileWriter.Label start = new ClassFileWriter.Label();
+    //end of every loop the code is in,innermost last,and how many ifs were open at its start
+    private final List<ClassFileWriter.Label> loopEnds = new ArrayList<>();
+    private final List<Integer> loopIfs = new ArrayList<>();
+    private int ifs = 0;
+
+    JitCompiler(Stmt.Function function){
+        this.function = function;
+        StringBuilder descriptor = new StringBuilder("(L" + INTERPRETER + ";");
+        for(int i=0;i<function.params.size();i++){
+            descriptor.append('D');
+        }
+        runDescriptor = descriptor.append(")D").toString();
+    }
+
+    //null when the function can not be compiled
+    byte[] compile(){
+        try{
+            writer.addInterface("com/craftinginterpreters/lox/JitCode");
+            constructor();
+            run();
+            bridge();
+            return writer.toByteArray();
+        }catch (Unsupported | IllegalStateException error){
+            return null;
+        }
+    }
+
+    private void constructor(){
+        code = writer.method(ACC_PUBLIC,"<init>","()V");
+        code.op(ALOAD_0,1);
+        code.opShort(INVOKESPECIAL,writer.methodRef("java/lang/Object","<init>","()V"),-1);
+        code.op(RETURN,0);
+        code.maxLocals = 1;
+    }
+
+    //static double run(Interpreter interpreter,double... parameters)
+    private void run(){
+        code = writer.method(ACC_PUBLIC | ACC_STATIC,"run",runDescriptor);
+        frames.add(1);
+        nextLocal = 1 + 2 * function.slots;
+        code.maxLocals = nextLocal;
+        code.mark(start);
+        for(Stmt statement : function.body){
+            statement.accept(this);
+        }
+        //falling off the end returns nil
+        deopt();
+    }
+
+    //double call(Interpreter interpreter,Object[] arguments),unboxes and calls run
+    private void bridge(){
+        code = writer.method(ACC_PUBLIC,"call","(L" + INTERPRETER + ";[Ljava/lang/Object;)D");
+        code.op(ALOAD_1,1);
+        int doubleValue = writer.methodRef("java/lang/Double","doubleValue","()D");
+        for(int i=0;i<function.params.size();i++){
+            code.op(ALOAD_2,1);
+            if(i<=5){
+                code.op(ICONST_0 + i,1);
+            }else{
+                code.opByte(BIPUSH,i,1);
+            }
+            code.op(AALOAD,-1);
+            code.opShort(CHECKCAST,writer.classRef("java/lang/Double"),0);
+            code.opShort(INVOKEVIRTUAL,doubleValue,1);
+        }
+        code.opShort(INVOKESTATIC,writer.methodRef(CLASS_NAME,"run",runDescriptor),-1 - 2 * function.params.size() + 2);
+        code.op(DRETURN,-2);
+        code.maxLocals = 3;
+    }
+
+    private void deopt(){
+        int depth = code.stack();
+        code.opShort(GETSTATIC,writer.fieldRef("com/craftinginterpreters/lox/Jit","DEOPT",DEOPT),1);
+        code.op(ATHROW,-1);
+        code.setStack(depth);
+    }
+
+    private void setFlag(String name,boolean value){
+        code.op(ALOAD_0,1);
+        code.op(value ? ICONST_1 : ICONST_0,1);
+        code.opShort(PUTFIELD,writer.fieldRef(INTERPRETER,name,"Z"),-2);
+    }
+
+    private int local(int depth,int slot){
+        int frame = frames.size() - 1 - depth;
+        if(depth<0 || frame<0){
+            throw new Unsupported();
+        }
+        return frames.get(frame) + 2 * slot;
+    }
+
+    //jumps to target when the truthiness of expr is jumpIf
+    private void condition(Expr expr,ClassFileWriter.Label target,boolean jumpIf){
+        if(expr instanceof Expr.Grouping){
+            condition(((Expr.Grouping) expr).expression,target,jumpIf);
+            return;
+        }
+        if(expr instanceof Expr.Literal){
+            if(Interpreter.isTruthy(((Expr.Literal) expr).value)==jumpIf){
+                code.jump(GOTO,target,0);
+            }
+            return;
+        }
+        if(expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type==TokenType.BANG){
+            condition(((Expr.Unary) expr).right,target,!jumpIf);
+            return;
+        }
+        if(expr instanceof Expr.Logical){
+            Expr.Logical logical = (Expr.Logical) expr;
+            boolean or = logical.operator.type==TokenType.OR;
+            if(or==jumpIf){
+                condition(logical.left,target,jumpIf);
+                condition(logical.right,target,jumpIf);
+            }else{
+                ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                condition(logical.left,skip,!jumpIf);
+                condition(logical.right,target,jumpIf);
+                code.mark(skip);
+            }
+            return;
+        }
+        if(expr instanceof Expr.Binary && compare((Expr.Binary) expr,target,jumpIf)){
+            return;
+        }
+
+        //numbers are always true
+        expr.accept(this);
+        code.op(POP2,-2);
+        if(jumpIf){
+            code.jump(GOTO,target,0);
+        }
+    }
+
+    private boolean compare(Expr.Binary expr,ClassFileWriter.Label target,boolean jumpIf){
+        int jump;
+        int compare = DCMPL;
+        switch (expr.operator.type){
+            case LESS:
+                compare = DCMPG;
+                jump = jumpIf ? IFLT : IFGE;
+                break;
+            case LESS_EQUAL:
+                compare = DCMPG;
+                jump = jumpIf ? IFLE : IFGT;
+                break;
+            case GREATER:
+                jump = jumpIf ? IFGT : IFLE;
+                break;
+            case GREATER_EQUAL:
+                jump = jumpIf ? IFGE : IFLT;
+                break;
+            //isEqual uses Double.equals,Double.compare agrees with it on NaN and -0
+            case EQUAL_EQUAL:
+                compare = -1;
+                jump = jumpIf ? IFEQ : IFNE;
+                break;
+            case BANG_EQUAL:
+                compare = -1;
+                jump = jumpIf ? IFNE : IFEQ;
+                break;
+            default:
+                return false;
+        }
+
+        expr.left.accept(this);
+        expr.right.accept(this);
+        if(compare==-1){
+            code.opShort(INVOKESTATIC,writer.methodRef("java/lang/Double","compare","(DD)I"),-3);
+        }else{
+            code.op(compare,-3);
+        }
+        code.jump(jump,target,-1);
+        return true;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        //any other expression statement would echo its value
+        if(!(stmt.expression instanceof Expr.Assign) && !(stmt.expression instanceof Expr.Call)){
+            throw new Unsupported();
+        }
+        stmt.expression.accept(this);
+        code.op(POP2,-2);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        if(stmt.initializer==null || stmt.cell){
+            throw new Unsupported();
+        }
+        stmt.initializer.accept(this);
+        code.storeDouble(local(0,stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        if(stmt.newFrame) pushFrame(stmt.slots);
+        for(Stmt statement : stmt.statements){
+            statement.accept(this);
+        }
+        if(stmt.newFrame) frames.remove(frames.size() - 1);
+        return null;
+    }
+
+    private void pushFrame(int slots){
+        frames.add(nextLocal);
+        nextLocal += 2 * slots;
+        if(nextLocal>code.maxLocals) code.maxLocals = nextLocal;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        condition(stmt.condition,elseBranch,false);
+        ifs++;
+        setFlag("ifBlock",true);
+        stmt.thenBranch.accept(this);
+        setFlag("ifBlock",false);
+        code.jump(GOTO,end,0);
+        code.mark(elseBranch);
+        if(stmt.elseBranch!=null){
+            setFlag("ifBlock",true);
+            stmt.elseBranch.accept(this);
+            setFlag("ifBlock",false);
+        }
+        ifs--;
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        ClassFileWriter.Label loop = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.mark(loop);
+        condition(stmt.condition,end,false);
+        loopEnds.add(end);
+        loopIfs.add(ifs);
+        stmt.statement.accept(this);
+        loopEnds.remove(loopEnds.size() - 1);
+        loopIfs.remove(loopIfs.size() - 1);
+        code.jump(GOTO,loop,0);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        pushFrame(stmt.slots);
+        if(stmt.initializer!=null) stmt.initializer.accept(this);
+        ClassFileWriter.Label loop = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.mark(loop);
+        condition(stmt.condition,end,false);
+        loopEnds.add(end);
+        loopIfs.add(ifs);
+        stmt.body.accept(this);
+        loopEnds.remove(loopEnds.size() - 1);
+        loopIfs.remove(loopIfs.size() - 1);
+        if(stmt.increment!=null) stmt.increment.accept(this);
+        code.jump(GOTO,loop,0);
+        code.mark(end);
+        frames.remove(frames.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt){
+        if(!stmt.loop) return null;
+        //the ifs the break leaves end like they do in the interpreter
+        if(ifs>loopIfs.get(loopIfs.size() - 1)){
+            setFlag("ifBlock",false);
+        }
+        code.jump(GOTO,loopEnds.get(loopEnds.size() - 1),0);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if(stmt.value==null){
+            deopt();
+            return null;
+        }
+        if(stmt.tail && isSelfCall(stmt.value)){
+            //the new arguments replace the parameters and the body starts over
+            pushArguments((Expr.Call) stmt.value);
+            for(int i=function.params.size() - 1;i>=0;i--){
+                code.storeDouble(frames.get(0) + 2 * i);
+            }
+            code.jump(GOTO,start,0);
+            return null;
+        }
+        stmt.value.accept(this);
+        code.op(DRETURN,-2);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitGetField(Stmt.GetField stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitStaticVarStmt(Stmt.StaticVar stmt){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        int operation;
+        switch (expr.operator.type){
+            case PLUS: operation = DADD; break;
+            case MINUS: operation = DSUB; break;
+            case STAR: operation = DMUL; break;
+            case SLASH: operation = DDIV; break;
+            default:
+                throw new Unsupported();
+        }
+        expr.left.accept(this);
+        expr.right.accept(this);
+        if(operation==DDIV){
+            //division by zero is a runtime error,the interpreter reports it
+            ClassFileWriter.Label divide = new ClassFileWriter.Label();
+            code.op(DUP2,2);
+            code.op(DCONST_0,2);
+            code.op(DCMPL,-3);
+            code.jump(IFNE,divide,-1);
+            deopt();
+            code.mark(divide);
+        }
+        code.op(operation,-2);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        if(!(expr.value instanceof Double)){
+            throw new Unsupported();
+        }
+        double value = (double) expr.value;
+        if(Double.doubleToRawLongBits(value)==0){
+            code.op(DCONST_0,2);
+        }else if(value==1.0){
+            code.op(DCONST_1,2);
+        }else{
+            code.opShort(LDC2_W,writer.doubleConstant(value),2);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        if(expr.operator.type!=TokenType.MINUS){
+            throw new Unsupported();
+        }
+        expr.right.accept(this);
+        code.op(DNEG,0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        if(expr.cell) throw new Unsupported();
+        code.loadDouble(local(expr.depth,expr.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        if(expr.cell) throw new Unsupported();
+        int local = local(expr.depth,expr.slot);
+        expr.value.accept(this);
+        code.op(DUP2,2);
+        code.storeDouble(local);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        if(!isSelfCall(expr)){
+            throw new Unsupported();
+        }
+
+        code.op(ALOAD_0,1);
+        pushArguments(expr);
+        code.opShort(INVOKESTATIC,writer.methodRef(CLASS_NAME,"run",runDescriptor),-1 - 2 * expr.arguments.size() + 2);
+        return null;
+    }
+
+    //only calls of the function itself by its global name are compiled
+    private boolean isSelfCall(Expr expr){
+        if(!(expr instanceof Expr.Call) || !(((Expr.Call) expr).callee instanceof Expr.Variable)){
+            return false;
+        }
+        Expr.Call call = (Expr.Call) expr;
+        Expr.Variable callee = (Expr.Variable) call.callee;
+        return callee.depth==-1 && callee.name.lexeme.equals(function.name.lexeme) &&
+            call.arguments.size()==function.params.size();
+    }
+
+    private void pushArguments(Expr.Call call){
+        for(Stmt argument : call.arguments){
+            if(!(argument instanceof Stmt.Expression)){
+                throw new Unsupported();
+            }
+            ((Stmt.Expression) argument).expression.accept(this);
+        }
+        selfCalls = true;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        throw new Unsupported();
+    }
+}
@@ -3,9 +3,13 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.io.File;
 
@@ -15,13 +19,78 @@ public class Lox {
     static boolean hadRuntimeError = false;
 
     private static final Interpreter interpreter = new Interpreter();
+    //selected with --engine=vm,the tree walking interpreter is the default
+    private static VM vm = null;
+    //--alloc-stats,prints the bytes the program allocated per loop iteration
+    private static boolean allocStats = false;
+    //--stream,runs every top level statement as soon as it is parsed
+    private static boolean stream = false;
+    //--pipeline,like --stream but the front end runs on its own thread
+    private static boolean pipeline = false;
+    //errors of the --pipeline front end thread wait here for their statement
+    private static final ThreadLocal<StringBuilder> deferredErrors = new ThreadLocal<>();
 
     public static void main(String[] args) throws IOException {
-        if(args.length>1){
-            System.out.println("Usage: jlox [script]");
+        List<String> files = new ArrayList<>();
+        boolean badOption = false;
+        String engine = "tree";
+        boolean jitStats = false;
+        for(String arg : args){
+            if(arg.equals("--engine=vm") || arg.equals("--engine=tree") || arg.equals("--engine=closure")){
+                engine = arg.substring("--engine=".length());
+            }else if(arg.equals("--jit")){
+                Jit.enabled = true;
+            }else if(arg.equals("--jit-stats")){
+                Jit.enabled = true;
+                jitStats = true;
+            }else if(arg.equals("--ic-stats")){
+                InlineCache.collectStats = true;
+            }else if(arg.equals("--alloc-stats")){
+                allocStats = true;
+            }else if(arg.equals("--scan-stats")){
+                Scanner.collectStats = true;
+            }else if(arg.equals("--stream")){
+                stream = true;
+            }else if(arg.equals("--pipeline")){
+                pipeline = true;
+            }else if(arg.equals("--optimize")){
+                Optimizer.enabled = true;
+            }else if(arg.equals("--optimize-stats")){
+                Optimizer.enabled = true;
+                Optimizer.collectStats = true;
+            }else if(arg.startsWith("--")){
+                badOption = true;
+            }else{
+                files.add(arg);
+            }
+        }
+
+        if(engine.equals("vm")){
+            vm = new VM();
+        }else if(engine.equals("closure")){
+            //still the tree walking interpreter,but the statements are compiled to nodes first
+            interpreter.useClosureCompiler();
+        }
+
+        if(jitStats){
+            //runFile leaves through System.exit on errors
+            Runtime.getRuntime().addShutdownHook(new Thread(Jit::printStats));
+        }
+        if(InlineCache.collectStats){
+            Runtime.getRuntime().addShutdownHook(new Thread(InlineCache::printStats));
+        }
+        if(Optimizer.collectStats){
+            Runtime.getRuntime().addShutdownHook(new Thread(Optimizer::printStats));
+        }
+        if(Scanner.collectStats){
+            Runtime.getRuntime().addShutdownHook(new Thread(Scanner::printStats));
+        }
+
+        if(badOption || files.size()>1){
+            System.out.println("Usage: jlox [--engine=tree|closure|vm] [--jit] [--jit-stats] [--ic-stats] [--alloc-stats] [--scan-stats] [--stream] [--pipeline] [--optimize] [--optimize-stats] [script]");
             System.exit(64);
-        }else if(args.length==1){
-            String userDirectory = new File("").getAbsolutePath() + "/com/craftinginterpreters/lox/" + args[0];
+        }else if(files.size()==1){
+            String userDirectory = new File("").getAbsolutePath() + "/com/craftinginterpreters/lox/" + files.get(0);
             runFile(userDirectory);
         }else{
             runPrompt();
@@ -29,15 +98,38 @@ public class Lox {
     }
 
     //runfile method,if given file from command line will run it
+    //the bytes are decoded once,the scanner works on the chars of that buffer
+    //without copying them again into a String
     private static void runFile(String path) throws IOException{
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        CharBuffer source = Charset.defaultCharset().decode(ByteBuffer.wrap(bytes));
+        long allocated = allocatedBytes();
+        long iterations = interpreter.backEdges;
+        run(source);
+        if(allocStats){
+            printAllocStats(allocatedBytes() - allocated,interpreter.backEdges - iterations);
+        }
         if(hadError){
             System.exit(65);
         }
         if(hadRuntimeError) System.exit(70);
     }
 
+    //bytes allocated by this thread so far,counted by the jvm
+    private static long allocatedBytes(){
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    //the vm does not count loop iterations,only the total is printed for it
+    private static void printAllocStats(long bytes,long iterations){
+        if(iterations==0){
+            System.err.printf("[alloc] %d bytes%n",bytes);
+        }else{
+            System.err.printf("[alloc] %d bytes, %d loop iterations, %.2f bytes/iteration%n",
+                    bytes,iterations,(double)bytes / iterations);
+        }
+    }
+
     private static void runPrompt() throws IOException{
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -51,23 +143,99 @@ public class Lox {
         }
     }
 
-    private static void run(String source){
+    private static void run(CharSequence source){
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
+        //the parser pulls tokens from the scanner as it goes
+        Parser parser = new Parser(scanner.tokens());
         Resolver resolver = new Resolver(interpreter);
+        if(pipeline){
+            runPipelined(parser,resolver);
+            return;
+        }
+        if(stream){
+            runStream(parser,resolver);
+            return;
+        }
         List<Stmt> statements= parser.parse();
 
 
         if(hadError)return;
 
         resolver.resolve(statements);
+        if(Optimizer.enabled){
+            new Optimizer().optimize(statements);
+        }
 
-        interpreter.interpret(statements);
+        execute(statements);
 
     }
 
+    //every statement is parsed,resolved and run before the next one is
+    //parsed,so only the tree of one statement is alive at a time.After an
+    //error the rest is still parsed for its errors but nothing more runs
+    private static void runStream(Parser parser,Resolver resolver){
+        Optimizer optimizer = Optimizer.enabled ? new Optimizer() : null;
+        StreamedRun run = new StreamedRun();
+        for(Stmt stmt = parser.next();stmt!=null;stmt = parser.next()){
+            if(run.stopped()) continue;
+            run.statements.add(stmt);
+            resolver.resolve(run.statements);
+            if(optimizer!=null){
+                optimizer.optimize(run.statements);
+            }
+            run.execute();
+        }
+    }
+
+    //runStream with the parsing and resolving done by a Pipeline,the errors
+    //it found are reported here at the place of their statement
+    private static void runPipelined(Parser parser,Resolver resolver){
+        Pipeline front = new Pipeline(parser,resolver,Optimizer.enabled ? new Optimizer() : null);
+        front.start();
+        StreamedRun run = new StreamedRun();
+        for(;;){
+            for(Pipeline.Parsed parsed : front.take()){
+                reportDeferred(parsed.parseErrors);
+                if(parsed.last) return;
+                if(run.stopped()) continue;
+                reportDeferred(parsed.resolveErrors);
+                if(parsed.stmt==null) continue;
+                run.statements.add(parsed.stmt);
+                run.execute();
+            }
+        }
+    }
+
+    //one --stream or --pipeline run,it stops at its first error.A runtime
+    //error is remembered here and not read back from hadRuntimeError,that
+    //flag is never cleared and would stop every later line of the repl
+    private static final class StreamedRun {
+        final List<Stmt> statements = new ArrayList<>(1);
+        private boolean runtimeFailed = false;
+
+        boolean stopped(){
+            return hadError || runtimeFailed;
+        }
+
+        //executes the statements and clears them for the next one
+        void execute(){
+            boolean failedBefore = hadRuntimeError;
+            hadRuntimeError = false;
+            Lox.execute(statements);
+            runtimeFailed = hadRuntimeError;
+            hadRuntimeError |= failedBefore;
+            statements.clear();
+        }
+    }
+
+    private static void execute(List<Stmt> statements){
+        if(vm!=null){
+            vm.interpret(statements);
+        }else{
+            interpreter.interpret(statements);
+        }
+    }
+
     static void error(Token token,String message){
         if(token.type==TokenType.EOF){
             report(token.line," at end",message);
@@ -82,7 +250,23 @@ public class Lox {
     }
 
     static void report(int line,String where,String message){
-        System.err.println("[line " + line + "] Error at " + where + ": " + message);
+        String error = "[line " + line + "] Error at " + where + ": " + message;
+        StringBuilder deferred = deferredErrors.get();
+        if(deferred!=null){
+            deferred.append(error).append(System.lineSeparator());
+            return;
+        }
+        System.err.println(error);
+        hadError = true;
+    }
+
+    static void deferErrors(StringBuilder errors){
+        deferredErrors.set(errors);
+    }
+
+    private static void reportDeferred(String errors){
+        if(errors.isEmpty()) return;
+        System.err.print(errors);
         hadError = true;
     }
 }
\ No newline at end of file
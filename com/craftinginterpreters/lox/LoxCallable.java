@@ -1,8 +1,26 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
+//The arity is checked by the caller before any of these run.
+//call0..call3 let callers that hold the arguments in hand skip the array
 interface LoxCallable {
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
-    Object call(Interpreter interpreter,List<Object> arguments);
-}
\ No newline at end of file
+    Object callN(Interpreter interpreter,Object[] arguments);
+
+    default Object call0(Interpreter interpreter){
+        return callN(interpreter,NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter,Object a){
+        return callN(interpreter,new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter,Object a,Object b){
+        return callN(interpreter,new Object[]{a,b});
+    }
+
+    default Object call3(Interpreter interpreter,Object a,Object b,Object c){
+        return callN(interpreter,new Object[]{a,b,c});
+    }
+}
@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
@@ -7,27 +8,32 @@ import java.util.ArrayList;
 class LoxClass implements LoxCallable{
     final String name;
     final LoxClass superclass;
+    //own methods and the inherited ones,flattened once when the class is made
     private final Map<String, LoxFunction> methods;
+    //"init" of the class or of a superclass,null when there is none
+    private final LoxFunction initializer;
+    private final int arity;
     private final Map<String, GetField> getFields;
     final Environment staticEnvironment;
+    //shape of a new instance,the tree of field layouts grows from here
+    final Shape rootShape = new Shape();
     LoxClass(String name,LoxClass superclass,Map<String, LoxFunction> methods,Map<String, GetField> getFields,Environment staticEnvironment){
         this.name = name;
         this.superclass = superclass;
+        if(superclass!=null){
+            Map<String, LoxFunction> inherited = new HashMap<>(superclass.methods);
+            inherited.putAll(methods);
+            methods = inherited;
+        }
         this.methods = methods;
+        this.initializer = methods.get("init");
+        this.arity = initializer==null ? 0 : initializer.arity();
         this.getFields = getFields;
         this.staticEnvironment = staticEnvironment;
     }
 
     LoxFunction findMethod(String name){
-        if(methods.containsKey(name)){
-            return methods.get(name);
-        }
-
-        if(superclass!=null){
-            return superclass.findMethod(name);
-        }
-
-        return null;
+        return methods.get(name);
     }
 
 
@@ -52,19 +58,57 @@ class LoxClass implements LoxCallable{
     }
 
     @Override
-    public Object call(Interpreter interpreter,List<Object> arguments){
+    public Object call0(Interpreter interpreter){
+        return callN(interpreter,NO_ARGUMENTS);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter,Object a){
+        LoxInstance instance = new LoxInstance(this);
+        if(initializer!=null){
+            Environment frame = initializer.frame(interpreter,instance);
+            frame.values[0] = a;
+            initializer.run(interpreter,frame);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter,Object a,Object b){
+        LoxInstance instance = new LoxInstance(this);
+        if(initializer!=null){
+            Environment frame = initializer.frame(interpreter,instance);
+            frame.values[0] = a;
+            frame.values[1] = b;
+            initializer.run(interpreter,frame);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter,Object a,Object b,Object c){
+        LoxInstance instance = new LoxInstance(this);
+        if(initializer!=null){
+            Environment frame = initializer.frame(interpreter,instance);
+            frame.values[0] = a;
+            frame.values[1] = b;
+            frame.values[2] = c;
+            initializer.run(interpreter,frame);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter,Object[] arguments){
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if(initializer!=null){
-            initializer.bind(instance).call(interpreter,arguments);
+            initializer.invoke(interpreter,instance,arguments);
         }
         return instance;
     }
 
     @Override
     public int arity(){
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 }
\ No newline at end of file
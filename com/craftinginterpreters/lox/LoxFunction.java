@@ -1,10 +1,8 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 class LoxFunction implements LoxCallable{
 
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInitializer;
 
@@ -14,23 +12,119 @@ class LoxFunction implements LoxCallable{
         this.isInitializer = isInitializer;
     }
 
+    //closure of a fun declaration or an anonymous fun made in environment.
+    //It keeps only the variables the body uses from outside,copied into a
+    //frame of their own,so the frames around it are not kept alive
+    static LoxFunction capture(Stmt.Function declaration,Environment environment){
+        int[] depths = declaration.captureDepths;
+        if(depths==null) return new LoxFunction(declaration,environment,false);
+        Environment captured = new Environment(null,depths.length);
+        for(int i=0;i<depths.length;i++){
+            captured.values[i] = environment.getAt(depths[i],declaration.captureSlots[i]);
+        }
+        return new LoxFunction(declaration,captured,false);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter){
+        return run(interpreter,frame(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter,Object a){
+        Environment frame = frame(interpreter);
+        frame.values[0] = a;
+        return run(interpreter,frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter,Object a,Object b){
+        Environment frame = frame(interpreter);
+        frame.values[0] = a;
+        frame.values[1] = b;
+        return run(interpreter,frame);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter,Object a,Object b,Object c){
+        Environment frame = frame(interpreter);
+        frame.values[0] = a;
+        frame.values[1] = b;
+        frame.values[2] = c;
+        return run(interpreter,frame);
+    }
+
     @Override
-    public Object call(Interpreter interpreter,List<Object> arguments)
-    {
-        Environment environment = new Environment(closure);
-        for(int i=0;i<declaration.params.size();i++){
-            environment.define(declaration.params.get(i).lexeme,arguments.get(i));
+    public Object callN(Interpreter interpreter,Object[] arguments){
+        Environment frame = frame(interpreter);
+        System.arraycopy(arguments,0,frame.values,0,arguments.length);
+        return run(interpreter,frame);
+    }
+
+    //same as bind(instance).callN(...) without making the bound function
+    Object invoke(Interpreter interpreter,LoxInstance instance,Object[] arguments){
+        Environment frame = frame(interpreter,instance);
+        System.arraycopy(arguments,0,frame.values,0,arguments.length);
+        return run(interpreter,frame);
+    }
+
+    //frame of a new call,call sites that know the function evaluate the
+    //arguments straight into slots 0..arity-1 and then call run
+    Environment frame(Interpreter interpreter){
+        if(declaration.reuseFrame) return interpreter.acquireFrame(closure,declaration.slots);
+        return new Environment(closure,declaration.slots);
+    }
+
+    //frame of a call to this method with "this" set to instance
+    Environment frame(Interpreter interpreter,LoxInstance instance){
+        Environment receiver = new Environment(closure,declaration.thisSlots);
+        receiver.define(0,instance);
+        if(declaration.reuseFrame) return interpreter.acquireFrame(receiver,declaration.slots);
+        return new Environment(receiver,declaration.slots);
+    }
+
+    Object run(Interpreter interpreter,Environment frame){
+        //calls in tail position come back as TAIL_CALL and are made here,
+        //so tail recursion keeps neither java frames nor the caller's frame
+        LoxFunction function = this;
+        for(;;){
+            Object value = function.runBody(interpreter,frame);
+            Stmt.Function declaration = function.declaration;
+            if(value!=Interpreter.TAIL_CALL){
+                if(declaration.reuseFrame) interpreter.releaseFrame(declaration.slots);
+                return value;
+            }
+            if(declaration.reuseFrame){
+                if(interpreter.tailFunction.declaration.reuseFrame) interpreter.replaceFrame(declaration.slots);
+                else interpreter.releaseFrame(declaration.slots);
+            }
+            function = interpreter.tailFunction;
+            frame = interpreter.tailFrame;
+            interpreter.tailFunction = null;
+            interpreter.tailFrame = null;
         }
-        try{
-            interpreter.executeBlock(declaration.body,environment);
-        }catch (Return returnValue){
-            if(isInitializer) return closure.getAt(0,"this");
-            return returnValue.value;
+    }
+
+    private Object runBody(Interpreter interpreter,Environment frame){
+        if(declaration.cellParams!=null){
+            for(int slot : declaration.cellParams){
+                frame.values[slot] = new Environment.Cell(frame.value(slot));
+            }
+        }
+        if(Jit.enabled && !isInitializer){
+            Object value = Jit.call(declaration,interpreter,frame.values);
+            if(value!=Jit.INTERPRET) return value;
         }
 
-        if(isInitializer) return closure.getAt(0,"this");
+        long backEdges = interpreter.backEdges;
+        Object value = interpreter.executeBody(declaration.body,frame);
+        //loops make a function hot as well as calls,there is no switch in
+        //the middle of a loop so the next call is the first compiled one
+        declaration.heat += interpreter.backEdges - backEdges;
+
+        if(isInitializer) return frame.enclosing.getAt(0,0);
 
-        return null;
+        return value;
     }
 
     @Override
@@ -39,8 +133,8 @@ class LoxFunction implements LoxCallable{
     }
 
     LoxFunction bind(LoxInstance instance){
-        Environment environment = new Environment(closure);
-        environment.define("this",instance);
+        Environment environment = new Environment(closure,declaration.thisSlots);
+        environment.define(0,instance);
         return new LoxFunction(declaration,environment,isInitializer);
     }
 
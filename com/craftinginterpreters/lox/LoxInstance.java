@@ -1,17 +1,25 @@
 package com.craftinginterpreters.lox;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 class LoxInstance {
 
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    //fields live in the slots their shape gives them
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     LoxInstance(){
-
+        this.shape = new Shape();
     }
 
     LoxInstance(LoxClass klass){
         this.klass = klass;
+        this.shape = klass.rootShape;
+    }
+
+    Shape shape(){
+        return shape;
     }
 
     public String toString(){
@@ -19,20 +27,73 @@ class LoxInstance {
     }
 
     Object get(Token name){
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
+        int slot = shape.slot(name.lexeme);
+        if(slot!=-1){
+            return fields[slot];
+        }
+
+        return bind(name,findMember(name));
+    }
+
+    //same as get,but what the name means for this shape comes from the cache
+    Object get(Token name,InlineCache cache){
+        int entry = entry(name,cache);
+        if(entry==-1) return get(name);
+
+        int slot = cache.slot(entry);
+        if(slot!=-1){
+            return fields[slot];
+        }
+        return bind(name,cache.member(entry));
+    }
+
+    //the method obj.name(...) would bind and call,null when the name is a field,
+    //a getter,a static method or missing,those go through get
+    LoxFunction method(Token name,InlineCache cache){
+        Object member;
+        int entry = entry(name,cache);
+        if(entry!=-1){
+            if(cache.slot(entry)!=-1) return null;
+            member = cache.member(entry);
+        }else{
+            if(shape.slot(name.lexeme)!=-1) return null;
+            member = findMember(name);
+        }
+
+        if(member instanceof LoxFunction && !((LoxFunction) member).isStaticMethod()){
+            return (LoxFunction) member;
+        }
+        return null;
+    }
+
+    //entry of the cache for the current shape,-1 when the site is megamorphic
+    private int entry(Token name,InlineCache cache){
+        int entry = cache.lookup(shape);
+        if(entry==-1){
+            int slot = shape.slot(name.lexeme);
+            entry = cache.add(shape,slot,slot==-1 ? findMember(name) : null,null);
         }
+        return entry;
+    }
 
+    //method or getter of the class,null when there is none
+    private Object findMember(Token name){
         LoxFunction method = klass.findMethod(name.lexeme);
-        if(method!=null){
+        if(method!=null) return method;
+        return klass.findGetField(name.lexeme);
+    }
+
+    private Object bind(Token name,Object member){
+        if(member instanceof LoxFunction){
+            LoxFunction method = (LoxFunction) member;
             if(method.isStaticMethod()){
                 return method.bindStatic(klass.staticEnvironment);
             }
             return method.bind(this);
         }
 
-        GetField getField = klass.findGetField(name.lexeme);
-        if(getField!=null){
+        if(member instanceof GetField){
+            GetField getField = (GetField) member;
             if(getField.isStatic()){
                 //System.out.println(klass.staticEnvironment);
                 return getField.bindStatic(klass.staticEnvironment);
@@ -44,7 +105,39 @@ class LoxInstance {
 
 
     void set(Token name,Object value){
-        fields.put(name.lexeme,value);
+        int slot = shape.slot(name.lexeme);
+        if(slot==-1){
+            moveTo(shape.with(name.lexeme));
+            slot = shape.size - 1;
+        }
+        fields[slot] = value;
+    }
+
+    //the cached entry has the slot and,when the field is new,the shape after adding it
+    void set(Token name,Object value,InlineCache cache){
+        int entry = cache.lookup(shape);
+        if(entry==-1){
+            int slot = shape.slot(name.lexeme);
+            Shape target = slot==-1 ? shape.with(name.lexeme) : shape;
+            entry = cache.add(shape,slot==-1 ? target.size - 1 : slot,null,target);
+            if(entry==-1){
+                set(name,value);
+                return;
+            }
+        }
+
+        Shape target = cache.target(entry);
+        if(target!=shape){
+            moveTo(target);
+        }
+        fields[cache.slot(entry)] = value;
+    }
+
+    private void moveTo(Shape target){
+        shape = target;
+        if(target.size>fields.length){
+            fields = Arrays.copyOf(fields,Math.max(4,fields.length * 2));
+        }
     }
 
 //
@@ -0,0 +1,446 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Optional pass between the Resolver and the engines,turned on with --optimize.
+//Operators whose operands are literals are run once here through the
+//interpreter's own code,so the result is the one the program would get.
+//An operator that fails (division by 0,adding a number to a string) is
+//kept and fails at run time like before.
+//Branches that a literal condition never takes are dropped.
+//Children are replaced in place,so what the resolver stored in the
+//nodes (slots,depths,inline caches) stays where it is
+class Optimizer implements Expr.Visitor<Expr>,Stmt.Visitor<Stmt>{
+
+    static boolean enabled = false;
+    //set with --optimize-stats,counts the nodes before and after the pass
+    static boolean collectStats = false;
+    private static long nodesBefore = 0;
+    private static long nodesAfter = 0;
+    private static long folded = 0;
+    private static long deadBranches = 0;
+
+    void optimize(List<Stmt> statements){
+        if(collectStats) nodesBefore += Counter.count(statements);
+        optimizeAll(statements);
+        if(collectStats) nodesAfter += Counter.count(statements);
+    }
+
+    //a null result means the statement does nothing and is removed
+    private Stmt optimize(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+
+    private void optimizeAll(List<Stmt> statements){
+        for(int i=0;i<statements.size();i++){
+            Stmt stmt = optimize(statements.get(i));
+            if(stmt==null){
+                statements.remove(i--);
+            }else{
+                statements.set(i,stmt);
+            }
+        }
+    }
+
+    //branches and loop bodies are a single statement and can not be removed
+    private Stmt optimizeBranch(Stmt stmt){
+        Stmt optimized = optimize(stmt);
+        if(optimized==null) return emptyBlock();
+        return optimized;
+    }
+
+    private static Stmt.Block emptyBlock(){
+        Stmt.Block block = new Stmt.Block(new ArrayList<>());
+        block.newFrame = false;
+        return block;
+    }
+
+    private static boolean isConstant(Expr expr){
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object value(Expr expr){
+        return ((Expr.Literal) expr).value;
+    }
+
+    private static Expr.Literal literal(Object value){
+        folded++;
+        value = Rope.flat(value);
+        if(value instanceof Double) return new Expr.Literal(value,TokenType.NUMBER);
+        if(value instanceof String) return new Expr.Literal(value,TokenType.STRING);
+        if(value instanceof Boolean) return new Expr.Literal(value,(boolean) value ? TokenType.TRUE : TokenType.FALSE);
+        return new Expr.Literal(null,TokenType.NIL);
+    }
+
+    //same test as visitExpressionStmt of the engines
+    private static boolean echoes(Expr expression){
+        return !(expression instanceof Expr.Assign) && !(expression instanceof Expr.Call) &&
+            !(expression instanceof Expr.Variable) && !(expression instanceof Expr.Set);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt){
+        Expr expression = optimize(stmt.expression);
+        //a grouping around a variable or call is still echoed,keep one
+        if(echoes(stmt.expression) && !echoes(expression)){
+            expression = new Expr.Grouping(expression);
+        }
+        stmt.expression = expression;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt){
+        stmt.expression = optimize(stmt.expression);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt){
+        if(stmt.initializer!=null) stmt.initializer = optimize(stmt.initializer);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitStaticVarStmt(Stmt.StaticVar stmt){
+        if(stmt.initializer!=null) stmt.initializer = optimize(stmt.initializer);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt){
+        optimizeAll(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt){
+        stmt.condition = optimize(stmt.condition);
+        if(!isConstant(stmt.condition)){
+            stmt.thenBranch = optimizeBranch(stmt.thenBranch);
+            if(stmt.elseBranch!=null) stmt.elseBranch = optimizeBranch(stmt.elseBranch);
+            return stmt;
+        }
+
+        Stmt taken = Interpreter.isTruthy(value(stmt.condition)) ? stmt.thenBranch : stmt.elseBranch;
+        deadBranches++;
+        if(taken==null) return null;
+        //the if itself stays,it still sets ifBlock around the branch it runs
+        stmt.condition = new Expr.Literal(true,TokenType.TRUE);
+        stmt.thenBranch = optimizeBranch(taken);
+        stmt.elseBranch = null;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt){
+        stmt.condition = optimize(stmt.condition);
+        if(isConstant(stmt.condition) && !Interpreter.isTruthy(value(stmt.condition))){
+            deadBranches++;
+            return null;
+        }
+        stmt.statement = optimizeBranch(stmt.statement);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt){
+        if(stmt.initializer!=null) stmt.initializer = optimize(stmt.initializer);
+        stmt.condition = optimize(stmt.condition);
+        if(isConstant(stmt.condition) && !Interpreter.isTruthy(value(stmt.condition))){
+            deadBranches++;
+            if(stmt.initializer==null) return null;
+            //the initializer still runs once,in the frame of the loop
+            stmt.body = emptyBlock();
+            stmt.increment = null;
+            return stmt;
+        }
+        if(stmt.increment!=null) stmt.increment = (Stmt.Expression) optimize(stmt.increment);
+        stmt.body = optimizeBranch(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt){
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt){
+        optimizeAll(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt){
+        //a tail call stays a call,only its arguments change
+        if(stmt.value!=null) stmt.value = optimize(stmt.value);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt){
+        optimizeAll(stmt.methods);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitGetField(Stmt.GetField stmt){
+        optimizeAll(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr){
+        expr.left = optimize(expr.left);
+        expr.right = optimize(expr.right);
+        if(!isConstant(expr.left) || !isConstant(expr.right)) return expr;
+        try{
+            return literal(Interpreter.binary(expr.operator,value(expr.left),value(expr.right)));
+        }catch (RuntimeError | ClassCastException error){
+            return expr;
+        }
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr){
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr){
+        expr.right = optimize(expr.right);
+        if(!isConstant(expr.right)) return expr;
+        Object right = value(expr.right);
+        switch (expr.operator.type){
+            case MINUS:
+                if(right instanceof Double) return literal(-(double) right);
+                break;
+            case BANG:
+                return literal(!Interpreter.isTruthy(right));
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr){
+        expr.value = optimize(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr){
+        expr.left = optimize(expr.left);
+        expr.right = optimize(expr.right);
+        if(!isConstant(expr.left)) return expr;
+        boolean truthy = Interpreter.isTruthy(value(expr.left));
+        folded++;
+        //the left value is the result when it decides,otherwise the right one is
+        if(expr.operator.type==TokenType.OR ? truthy : !truthy) return expr.left;
+        return expr.right;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr){
+        expr.callee = optimize(expr.callee);
+        for(Stmt argument : expr.arguments){
+            if(argument instanceof Stmt.Function){
+                optimize(argument);
+            }else{
+                Stmt.Expression expression = (Stmt.Expression) argument;
+                expression.expression = optimize(expression.expression);
+            }
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr){
+        expr.object = optimize(expr.object);
+        return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr){
+        expr.object = optimize(expr.object);
+        expr.value = optimize(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr){
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr){
+        return expr;
+    }
+
+    //printed to stderr at exit with --optimize-stats
+    static void printStats(){
+        System.err.printf("[optimize] %d of %d nodes removed, %d expressions folded, %d dead branches%n",
+                nodesBefore - nodesAfter,nodesBefore,folded,deadBranches);
+    }
+
+    //number of nodes in a tree,only used for the stats
+    private static final class Counter implements Expr.Visitor<Integer>,Stmt.Visitor<Integer>{
+        private static final Counter counter = new Counter();
+
+        static int count(List<Stmt> statements){
+            int count = 0;
+            for(Stmt stmt : statements){
+                count += stmt.accept(counter);
+            }
+            return count;
+        }
+
+        private int count(Stmt stmt){
+            return stmt==null ? 0 : stmt.accept(this);
+        }
+
+        private int count(Expr expr){
+            return expr==null ? 0 : expr.accept(this);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt){
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt){
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt){
+            return 1 + count(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitStaticVarStmt(Stmt.StaticVar stmt){
+            return 1 + count(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt){
+            return 1 + count(stmt.statements);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt){
+            return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt){
+            return 1 + count(stmt.condition) + count(stmt.statement);
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt){
+            return 1 + count(stmt.initializer) + count(stmt.condition) + count(stmt.increment) + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt){
+            return 1;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt){
+            return 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt){
+            return 1 + count(stmt.value);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt){
+            return 1 + count(stmt.superclass) + count(stmt.methods);
+        }
+
+        @Override
+        public Integer visitGetField(Stmt.GetField stmt){
+            return 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr){
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr){
+            return 1 + count(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr){
+            return 1;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr){
+            return 1 + count(expr.right);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr){
+            return 1;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr){
+            return 1 + count(expr.value);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr){
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr){
+            return 1 + count(expr.callee) + count(expr.arguments);
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr){
+            return 1 + count(expr.object);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr){
+            return 1 + count(expr.object) + count(expr.value);
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr){
+            return 1;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr){
+            return 1;
+        }
+    }
+}
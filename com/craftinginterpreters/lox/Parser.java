@@ -1,6 +1,5 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -9,11 +8,12 @@ public class Parser {
 
     private static class ParseError extends RuntimeException{}
 
-    private final List<Token> tokens;
+    //a Token is only made for what ends up in the tree or in an error
+    private final TokenBuffer tokens;
     private int current = 0;
     private boolean whileOpened = false;
 
-    Parser(List<Token> tokens){
+    Parser(TokenBuffer tokens){
         this.tokens = tokens;
     }
 
@@ -39,17 +39,17 @@ public class Parser {
         Token name = consume(IDENTIFIER,"Expect class name.");
         Expr.Variable superclass = null;
         if(match(LESS)){
-            consume(IDENTIFIER,"Expect superclass name.");
+            expect(IDENTIFIER,"Expect superclass name.");
             superclass = new Expr.Variable(previous());
         }
-        consume(LEFT_BRACE,"Expect '{' before class body.");
+        expect(LEFT_BRACE,"Expect '{' before class body.");
 
         List<Stmt> methods = new ArrayList<>();
         while(!check(RIGHT_BRACE) && !isAtEnd()){
             methods.add(classFields());
         }
 
-        consume(RIGHT_BRACE,"Expect '}' after class body.");
+        expect(RIGHT_BRACE,"Expect '}' after class body.");
         return new Stmt.Class(name,superclass,methods);
     }
 
@@ -67,7 +67,8 @@ public class Parser {
                 return staticVarDecl();
             }
             else if(check(IDENTIFIER)){
-                Token name = advance();
+                advance();
+                Token name = previous();
                 if(check(LEFT_BRACE)){
                     advance();
                     List<Stmt> body = block();
@@ -100,7 +101,7 @@ public class Parser {
             name = consume(IDENTIFIER,"Expect " + kind + " name.");
         }
 
-        consume(LEFT_PAREN,"Expect '(' after " + kind + " name.");
+        expect(LEFT_PAREN,"Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if(!check(RIGHT_PAREN)){
             do{
@@ -111,9 +112,9 @@ public class Parser {
                 parameters.add(consume(IDENTIFIER,"Expect parameter name"));
             }while(match(COMMA));
         }
-        consume(RIGHT_PAREN,"Expect ')' after parameters.");
+        expect(RIGHT_PAREN,"Expect ')' after parameters.");
 
-        consume(LEFT_BRACE,"Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE,"Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
         return new Stmt.Function(name,parameters,body,staticMethod);
     }
@@ -129,7 +130,7 @@ public class Parser {
             //Should be StmtExpression here to support ternary statement - ?:
             initializer = expression();
         }
-        consume(SEMICOLON,"Expect ';' after variable declaration.");
+        expect(SEMICOLON,"Expect ';' after variable declaration.");
         return new Stmt.StaticVar(name,initializer);
     }
 
@@ -141,7 +142,7 @@ public class Parser {
             //Should be StmtExpression here to support ternary statement - ?:
             initializer = expression();
         }
-        consume(SEMICOLON,"Expect ';' after variable declaration.");
+        expect(SEMICOLON,"Expect ';' after variable declaration.");
         return new Stmt.Var(name,initializer);
     }
 
@@ -171,7 +172,7 @@ public class Parser {
 //            if(!whileOpened){
 //                throw error(peek(),"Break used at wrong place");
 //            }
-            consume(SEMICOLON,"Missing semicolon after break");
+            expect(SEMICOLON,"Missing semicolon after break");
             return new Stmt.Break();
         }
 
@@ -179,7 +180,7 @@ public class Parser {
     }
 
     private Stmt forStatement(){
-        consume(LEFT_PAREN,"Expect '(' after 'for'");
+        expect(LEFT_PAREN,"Expect '(' after 'for'");
 
         Stmt initializer;
         if(match(SEMICOLON)){
@@ -195,34 +196,24 @@ public class Parser {
         if(!check(SEMICOLON)){
             condition = expression();
         }
-        consume(SEMICOLON,"Expect ';' after loop condition.");
+        expect(SEMICOLON,"Expect ';' after loop condition.");
 
         Expr increment = null;
         if(!check(RIGHT_PAREN)){
             increment = expression();
         }
-        consume(RIGHT_PAREN,"Expect ')' after for clauses.");
+        expect(RIGHT_PAREN,"Expect ')' after for clauses.");
 
         Stmt body = statement();
 
-        if(increment!=null){
-            body = new Stmt.Block(Arrays.asList(body,new Stmt.Expression(increment)));
-        }
-
         if(condition==null)condition = new Expr.Literal(true,TokenType.TRUE);
-        body = new Stmt.While(condition,body);
-
-        if(initializer!=null){
-            body = new Stmt.Block(Arrays.asList(initializer,body));
-        }
-
-        return body;
+        return new Stmt.For(initializer,condition,increment==null ? null : new Stmt.Expression(increment),body);
     }
 
     private Stmt ifStatement(){
-        consume(LEFT_PAREN,"Expect '(' after 'if'");
+        expect(LEFT_PAREN,"Expect '(' after 'if'");
         Expr condition = expression();
-        consume(RIGHT_PAREN,"Expect ')' after if condition");
+        expect(RIGHT_PAREN,"Expect ')' after if condition");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -233,9 +224,9 @@ public class Parser {
     }
 
     private Stmt whileStatement(){
-        consume(LEFT_PAREN,"Expect '(' after 'while'");
+        expect(LEFT_PAREN,"Expect '(' after 'while'");
         Expr condition = expression();
-        consume(RIGHT_PAREN,"Expect ')' after 'while'");
+        expect(RIGHT_PAREN,"Expect ')' after 'while'");
         whileOpened = true;
 
         Stmt innserStmt = statement();
@@ -246,7 +237,7 @@ public class Parser {
 
     private Stmt printStatement(){
         Expr value = expression();
-        consume(SEMICOLON,"Expct ';' after value.");
+        expect(SEMICOLON,"Expct ';' after value.");
         return new Stmt.Print(value);
     }
 
@@ -257,14 +248,14 @@ public class Parser {
             value = expression();
         }
 
-        consume(SEMICOLON,"Expect ';' after return value.");
+        expect(SEMICOLON,"Expect ';' after return value.");
         return new Stmt.Return(keyword,value);
     }
 
 
     private Stmt expressionStatement(){
         Stmt expr = ternaryStatement();
-        consume(SEMICOLON, "Expect ';' after expressions.");
+        expect(SEMICOLON, "Expect ';' after expressions.");
         return expr;
     }
 
@@ -272,7 +263,7 @@ public class Parser {
         Expr expr = expression();
         if(match(QUESTION)){
             Stmt first = ternaryStatement();
-            consume(DOUBLECOLON,"Badly formed ternary expression");
+            expect(DOUBLECOLON,"Badly formed ternary expression");
             Expr right = expression();
             Stmt rightStmt = new Stmt.Expression(right);
             return new Stmt.If(expr,first,rightStmt);
@@ -284,7 +275,7 @@ public class Parser {
 
     private Stmt funcParamsExpr(){
         if(match(FUN)){
-            consume(LEFT_PAREN,"Expect '(' after fun declaration.");
+            expect(LEFT_PAREN,"Expect '(' after fun declaration.");
             List<Token> parameters = new ArrayList<>();
             if(!check(RIGHT_PAREN)){
                 do{
@@ -295,9 +286,9 @@ public class Parser {
                     parameters.add(consume(IDENTIFIER,"Expect parameter name"));
                 }while(match(COMMA));
             }
-            consume(RIGHT_PAREN,"Expect ')' after parameters.");
+            expect(RIGHT_PAREN,"Expect ')' after parameters.");
 
-            consume(LEFT_BRACE,"Expect '{' before body.");
+            expect(LEFT_BRACE,"Expect '{' before body.");
             List<Stmt> body = block();
             return new Stmt.Function(new Token(ANONYMOUS,"Anonymous",null,1),parameters,body,false);
         }
@@ -471,16 +462,16 @@ public class Parser {
         if(match(NIL))  return new Expr.Literal(null,TokenType.NIL);
 
         if(match(NUMBER, STRING)){
-            return new Expr.Literal(previous().literal,previous().type);
+            return new Expr.Literal(tokens.literal(current - 1),tokens.type(current - 1));
         }
         if(match(LEFT_PAREN)){
             Expr expr = expression();
-            consume(RIGHT_PAREN,"Expect ')' after expression.");
+            expect(RIGHT_PAREN,"Expect ')' after expression.");
             return new Expr.Grouping(expr);
         }
         if(match(SUPER)){
             Token keyword = previous();
-            consume(DOT,"Expect '.' after 'super'.");
+            expect(DOT,"Expect '.' after 'super'.");
             Token method = consume(IDENTIFIER,"Expect superclass method name.");
             return new Expr.Super(keyword,method);
         }
@@ -502,7 +493,7 @@ public class Parser {
             statements.add(declaration());
         }
 
-        consume(RIGHT_BRACE,"Expect '}' after block.");
+        expect(RIGHT_BRACE,"Expect '}' after block.");
         return statements;
     }
 
@@ -518,7 +509,15 @@ public class Parser {
     }
 
     private Token consume(TokenType type,String message){
-        if(check(type))return advance();
+        expect(type,message);
+        return previous();
+    }
+
+    private void expect(TokenType type,String message){
+        if(check(type)){
+            advance();
+            return;
+        }
 
         throw error(peek(),message);
     }
@@ -527,9 +526,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()){
-            if(previous().type==SEMICOLON) return;
+            if(tokens.type(current - 1)==SEMICOLON) return;
 
-            switch (peek().type){
+            switch (tokens.type(current)){
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -546,24 +545,23 @@ public class Parser {
 
     private boolean check(TokenType type){
         if(isAtEnd()) return false;
-        return peek().type==type;
+        return tokens.type(current)==type;
     }
 
-    private Token advance(){
+    private void advance(){
         if(!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd(){
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous(){
-        return tokens.get(current-1);
+        return tokens.token(current-1);
     }
 
     private ParseError error(Token token,String message){
@@ -581,6 +579,16 @@ public class Parser {
         return statements;
     }
 
+    //the next top level statement,null at the end.Statements with a syntax
+    //error are reported and skipped
+    Stmt next(){
+        while (!isAtEnd()){
+            Stmt stmt = declaration();
+            if(stmt!=null) return stmt;
+        }
+        return null;
+    }
+
     //public static void main(String[] args){
 //        Token first = new Token(LEFT_PAREN,null,"(",1);
 //        Token second = new Token(NUMBER,null,"1",1);
@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//--pipeline,scanning,parsing and resolving run on a thread of their own and
+//hand batches of statements to the thread that executes them.Errors found
+//there wait with their statement and are reported when it is reached,so
+//everything comes out in the order --stream prints it
+final class Pipeline implements Runnable {
+    //statements per batch and batches in flight,the front end is at most
+    //that far ahead of the program
+    private static final int BATCH = 32;
+    private static final int BATCHES = 16;
+
+    //a statement with the errors reported while parsing and resolving it,
+    //the statement is null when there is nothing to run
+    static final class Parsed {
+        final Stmt stmt;
+        final String parseErrors;
+        final String resolveErrors;
+        //the end of the script
+        final boolean last;
+
+        Parsed(Stmt stmt,String parseErrors,String resolveErrors,boolean last){
+            this.stmt = stmt;
+            this.parseErrors = parseErrors;
+            this.resolveErrors = resolveErrors;
+            this.last = last;
+        }
+    }
+
+    private final Parser parser;
+    private final Resolver resolver;
+    private final Optimizer optimizer;
+    private final BlockingQueue<List<Parsed>> queue = new ArrayBlockingQueue<>(BATCHES);
+    //what stopped the front end,an empty batch follows it
+    private volatile Throwable failure;
+
+    Pipeline(Parser parser,Resolver resolver,Optimizer optimizer){
+        this.parser = parser;
+        this.resolver = resolver;
+        this.optimizer = optimizer;
+    }
+
+    void start(){
+        Thread thread = new Thread(this,"lox-front-end");
+        //a program that dies on the executing thread does not wait for it
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run(){
+        StringBuilder errors = new StringBuilder();
+        Lox.deferErrors(errors);
+        List<Parsed> batch = new ArrayList<>(BATCH);
+        List<Stmt> statements = new ArrayList<>(1);
+        //after an error nothing more runs,so nothing more is resolved
+        boolean failed = false;
+        try {
+            for(;;){
+                Stmt stmt = parser.next();
+                String parseErrors = take(errors);
+                if(stmt==null){
+                    batch.add(new Parsed(null,parseErrors,"",true));
+                    put(batch);
+                    return;
+                }
+                failed |= !parseErrors.isEmpty();
+                String resolveErrors = "";
+                if(failed){
+                    //it never runs,only its errors are reported
+                    stmt = null;
+                }else{
+                    statements.add(stmt);
+                    resolver.resolve(statements);
+                    if(optimizer!=null){
+                        optimizer.optimize(statements);
+                    }
+                    //the optimizer may have removed it
+                    stmt = statements.isEmpty() ? null : statements.get(0);
+                    statements.clear();
+                    resolveErrors = take(errors);
+                    failed |= !resolveErrors.isEmpty();
+                }
+                if(stmt!=null || !parseErrors.isEmpty() || !resolveErrors.isEmpty()){
+                    batch.add(new Parsed(stmt,parseErrors,resolveErrors,false));
+                }
+                if(batch.size()==BATCH){
+                    put(batch);
+                    batch = new ArrayList<>(BATCH);
+                }
+            }
+        }catch (RuntimeException | Error error){
+            failure = error;
+            put(batch);
+            put(Collections.emptyList());
+        }
+    }
+
+    private static String take(StringBuilder errors){
+        if(errors.length()==0) return "";
+        String taken = errors.toString();
+        errors.setLength(0);
+        return taken;
+    }
+
+    private void put(List<Parsed> batch){
+        try {
+            queue.put(batch);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //the next batch,waits for the front end when it is behind
+    List<Parsed> take(){
+        List<Parsed> batch;
+        try {
+            batch = queue.take();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the front end.",e);
+        }
+        if(batch.isEmpty()){
+            Throwable error = failure;
+            if(error instanceof Error) throw (Error) error;
+            throw (RuntimeException) error;
+        }
+        return batch;
+    }
+}
@@ -1,5 +1,7 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,9 +10,9 @@ import java.util.Objects;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private final Interpreter intepreter;
-    private final Stack<Map<String,Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String,Local>> scopes = new Stack<>();
     //for static fields in class
-    private final Stack<Map<String,Boolean>> staticClassScope = new Stack<>();
+    private final Stack<Map<String,Local>> staticClassScope = new Stack<>();
 
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoop = LoopType.NONE;
@@ -47,7 +49,46 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         NONE,
         LOOP
     }
-    //This class is helper to show unused variables
+    //Declared variable with its slot in the runtime frame of the scope
+    private static class Local{
+        final int slot;
+        boolean defined;
+        //false while the declaration runs,a closure made then sees the later value
+        boolean initialized;
+        boolean captured = false;
+        boolean assigned = false;
+        //what makes the variable and what reads or writes it,told when it
+        //has to live in a Cell.Names without a declaration are never put in one
+        Stmt declaration;
+        Stmt.Function parameterOf;
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int slot,boolean defined){
+            this.slot = slot;
+            this.defined = defined;
+            this.initialized = defined;
+        }
+    }
+
+    //a fun declaration or anonymous fun being resolved,its body runs in a
+    //frame whose enclosing frame holds only the variables it captured
+    private static class FlatFunction{
+        final Stmt.Function declaration;
+        //index in scopes of the parameter scope
+        final int base;
+        final List<Local> captured = new ArrayList<>();
+        final List<Integer> depths = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+
+        FlatFunction(Stmt.Function declaration,int base){
+            this.declaration = declaration;
+            this.base = base;
+        }
+    }
+    //innermost last
+    private final List<FlatFunction> flatFunctions = new ArrayList<>();
+    //set by declareIn,null when the name went to the globals
+    private Local declared;
 
 
     Resolver(Interpreter interpreter){
@@ -56,9 +97,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
+        //a block that declares nothing runs in the frame around it
+        if(!declares(stmt)){
+            stmt.newFrame = false;
+            resolve(stmt.statements);
+            return null;
+        }
         beginScope(null);
         resolve(stmt.statements);
-        endScope();
+        stmt.slots = endScope();
         return null;
     }
 
@@ -67,10 +114,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if(currentField==getField.STATIC_FIELD || currentFunction==FunctionType.STATIC_METHOD){
             Lox.error(stmt.name,"Lox does not permit nestet function in static fields.");
         }
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        Local local = declared;
+        if(local!=null) local.declaration = stmt;
         define(stmt.name);
 
         resolveFunction(stmt,FunctionType.FUNCTION);
+        if(local!=null) local.initialized = true;
 
         return null;
     }
@@ -83,30 +133,66 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public void resolveGetField(Stmt.GetField getField,getField type){
         getField enclosingGet = currentField;
         currentField = type;
-        declare(getField.name);
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.NONE;
+        getField.slot = declare(getField.name);
         define(getField.name);
         beginScope(null);
         resolve(getField.body);
-        endScope();
+        getField.slots = endScope();
         currentField = enclosingGet;
+        currentLoop = enclosingLoop;
     }
     //resolving function here ,if its static method
     //it will put variables in the static scope of the class
     private void resolveFunction(Stmt.Function function,FunctionType type){
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        //a break can not leave the function it is in
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.NONE;
         if(currentFunction!=FunctionType.FUNCTION) {
-            declare(function.name);
+            function.slot = declare(function.name);
             define(function.name);
         }
         beginScope(null);
+        //fun declarations outside of static methods capture what they use,
+        //methods still see the frames around the class
+        FlatFunction flat = null;
+        if(type==FunctionType.FUNCTION && !inStaticScope()){
+            flat = new FlatFunction(function,scopes.size() - 1);
+            flatFunctions.add(flat);
+        }
         for(Token param : function.params){
             declare(param);
+            if(declared!=null) declared.parameterOf = function;
             define(param);
         }
         resolve(function.body);
-        endScope();
+        function.slots = endScope();
+        function.reuseFrame = true;
+        for(Stmt statement : function.body){
+            if(makesClosure(statement)) function.reuseFrame = false;
+        }
+        if(flat!=null){
+            flatFunctions.remove(flatFunctions.size() - 1);
+            function.captureDepths = toArray(flat.depths);
+            function.captureSlots = toArray(flat.slots);
+        }
         currentFunction = enclosingFunction;
+        currentLoop = enclosingLoop;
+    }
+
+    private static int[] toArray(List<Integer> list){
+        int[] array = new int[list.size()];
+        for(int i=0;i<array.length;i++){
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private boolean inStaticScope(){
+        return currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD;
     }
 
     @Override
@@ -120,6 +206,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
                     "Cannot use 'super' in a class with no superclass.");
         }
         resolveLocal(expr,expr.keyword);
+        Expr.This self = new Expr.This(new Token(TokenType.THIS,"this",null,expr.keyword.line));
+        resolveLocal(self,self.keyword);
+        //static methods have no "this",the interpreter looks where it always did
+        expr.thisDepth = self.depth==-1 ? expr.depth - 1 : self.depth;
+        expr.thisSlot = self.depth==-1 ? 0 : self.slot;
         return null;
     }
 
@@ -135,11 +226,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt){
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        Local local = declared;
+        if(local!=null) local.declaration = stmt;
         if(stmt.initializer != null){
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        if(local!=null) local.initialized = true;
         return null;
     }
     //resolving static variable here
@@ -149,7 +243,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitStaticVarStmt(Stmt.StaticVar stmt){
         varType enclosingVar = currentVar;
         currentVar = varType.STATIC;
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if(stmt.initializer!=null){
             resolve(stmt.initializer);
         }
@@ -164,7 +258,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitClassStmt(Stmt.Class stmt){
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        Local local = declared;
+        if(local!=null) local.declaration = stmt;
         define(stmt.name);
         if(stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
             Lox.error(stmt.superclass.name,"A class cannot interit from itself.");
@@ -175,11 +271,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         }
         if(stmt.superclass != null){
             beginScope("class");
-            scopes.peek().put("super",true);
-            staticClassScope.peek().put("super",true);
+            scopes.peek().put("super",new Local(0,true));
+            staticClassScope.peek().put("super",new Local(0,true));
         }
         beginScope("class");
-        scopes.peek().put("this",true);
+        scopes.peek().put("this",new Local(0,true));
         for(Stmt method : stmt.methods){
             if(method instanceof Stmt.Function){
                 Stmt.Function funcObj = (Stmt.Function) method;
@@ -210,9 +306,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             }
         }
 
-        endScope();
-        if(stmt.superclass != null) endScope();
+        //methods and getters run in a frame holding "this",
+        //it has room for every name declared in that scope
+        int thisSlots = scopes.peek().size();
+        for(Stmt method : stmt.methods){
+            if(method instanceof Stmt.Function){
+                ((Stmt.Function) method).thisSlots = thisSlots;
+            }
+            else if(method instanceof Stmt.GetField){
+                ((Stmt.GetField) method).thisSlots = thisSlots;
+            }
+        }
+        stmt.staticSlots = staticClassScope.peek().size();
+
+        endScope("class");
+        if(stmt.superclass != null) endScope("class");
         currentClass = enclosingClass;
+        if(local!=null) local.initialized = true;
 
         return null;
     }
@@ -231,68 +341,117 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
 
-    //Declare the variable
-    private void declare(Token name){
+    //Declare the variable and return its slot, -1 means it is a global
+    private int declare(Token name){
+        declared = null;
         //if it is static variabe ,we declare it in the static scope of the class
         if(currentVar==varType.STATIC || currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
-            if(staticClassScope.isEmpty()) return;
-            Map<String, Boolean> scope = staticClassScope.peek();
+            if(staticClassScope.isEmpty()) return -1;
+            Map<String, Local> scope = staticClassScope.peek();
             if(scope.containsKey(name.lexeme)){
                 Lox.error(name,"Static variable with this name already declared in this scope.");
             }
-            scope.put(name.lexeme,false);
+            return declareIn(scope,name);
         }
         //else go to regular scope
         else {
-            if (scopes.isEmpty()) return;
+            if (scopes.isEmpty()) return -1;
 
-            Map<String, Boolean> scope = scopes.peek();
+            Map<String, Local> scope = scopes.peek();
             if (scope.containsKey(name.lexeme)) {
                 Lox.error(name, "Variable with this name already declared in this scope.");
             }
-            scope.put(name.lexeme, false);
+            return declareIn(scope,name);
         }
     }
 
+    //slots are handed out in declaration order,a redeclared name keeps its slot
+    private int declareIn(Map<String,Local> scope,Token name){
+        Local existing = scope.get(name.lexeme);
+        int slot = existing!=null ? existing.slot : scope.size();
+        declared = new Local(slot,false);
+        scope.put(name.lexeme,declared);
+        return slot;
+    }
+
     //Define it
     private void define(Token name){
         if(currentVar==varType.STATIC || currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
             if(staticClassScope.isEmpty()) return;
-            staticClassScope.peek().put(name.lexeme,true);
+            staticClassScope.peek().get(name.lexeme).defined = true;
         }
         else {
             if (scopes.isEmpty()) return;
-            scopes.peek().put(name.lexeme, true);
+            scopes.peek().get(name.lexeme).defined = true;
         }
 
     }
 
     private void beginScope(String kind){
         if(kind!=null && kind.equals("class")){
-            scopes.push(new HashMap<String,Boolean>());
-            staticClassScope.push(new HashMap<String,Boolean>());
+            scopes.push(new HashMap<String,Local>());
+            staticClassScope.push(new HashMap<String,Local>());
             return;
         }
         if(currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
-            staticClassScope.push(new HashMap<String,Boolean>());
+            staticClassScope.push(new HashMap<String,Local>());
             return;
         }
-        scopes.push(new HashMap<String,Boolean>());
+        scopes.push(new HashMap<String,Local>());
     }
 
-    private void endScope(){
-        if(currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
+    //returns the number of slots the frame of the closed scope needs
+    private int endScope(){
+        return endScope(null);
+    }
+
+    private int endScope(String kind){
+        if(kind!=null && kind.equals("class")){
             staticClassScope.pop();
-            return;
+            return closeScope(scopes.pop());
+        }
+        if(currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
+            return staticClassScope.pop().size();
+        }
+        return closeScope(scopes.pop());
+    }
+
+    //a captured variable that changes after the closure is made lives in a
+    //Cell,everything that reads or writes it is told so
+    private static int closeScope(Map<String,Local> scope){
+        for(Local local : scope.values()){
+            if(!local.captured || !local.assigned) continue;
+            if(local.declaration instanceof Stmt.Var){
+                ((Stmt.Var) local.declaration).cell = true;
+            }else if(local.declaration instanceof Stmt.Function){
+                ((Stmt.Function) local.declaration).cell = true;
+            }else if(local.declaration instanceof Stmt.Class){
+                ((Stmt.Class) local.declaration).cell = true;
+            }else if(local.parameterOf!=null){
+                Stmt.Function function = local.parameterOf;
+                int[] cells = function.cellParams==null ? new int[0] : function.cellParams;
+                cells = Arrays.copyOf(cells,cells.length + 1);
+                cells[cells.length - 1] = local.slot;
+                function.cellParams = cells;
+            }else{
+                continue;
+            }
+            for(Expr use : local.uses){
+                if(use instanceof Expr.Variable){
+                    ((Expr.Variable) use).cell = true;
+                }else{
+                    ((Expr.Assign) use).cell = true;
+                }
+            }
         }
-        scopes.pop();
+        return scope.size();
     }
 
 
     //Expressions
     public Void visitVariableExpr(Expr.Variable expr){
 
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
+        if(!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme) && !scopes.peek().get(expr.name.lexeme).defined){
             Lox.error(expr.name,"Cannot read local variable in its own initializer");
         }
 
@@ -354,6 +513,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
                 Lox.error(stmt.keyword,"Cannot return a value from an initializer");
             }
             resolve(stmt.value);
+            //return (f(x)); is a tail call too,the parentheses are dropped so
+            //the engines find the call as the value
+            Expr value = stmt.value;
+            while(value instanceof Expr.Grouping) value = ((Expr.Grouping) value).expression;
+            //getters and initializers do not run through LoxFunction.run,which makes tail calls
+            stmt.tail = value instanceof Expr.Call && currentField==getField.NONE &&
+                    (currentFunction==FunctionType.FUNCTION || currentFunction==FunctionType.METHOD ||
+                     currentFunction==FunctionType.STATIC_METHOD);
+            if(stmt.tail) stmt.value = value;
         }
         return null;
     }
@@ -369,6 +537,107 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        beginScope(null);
+        if(stmt.initializer!=null) resolve(stmt.initializer);
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.LOOP;
+        resolve(stmt.condition);
+        //before the body,its variables are not visible to the increment
+        if(stmt.increment!=null) resolve(stmt.increment);
+        if(stmt.body instanceof Stmt.Block && canShareFrame(stmt)){
+            Stmt.Block body = (Stmt.Block) stmt.body;
+            body.newFrame = false;
+            resolve(body.statements);
+        }else{
+            resolve(stmt.body);
+        }
+        currentLoop = enclosingLoop;
+        stmt.slots = endScope();
+        return null;
+    }
+
+    //the body block of a for loop can keep its variables in the loop's frame
+    //when no closure could capture them,a closure needs a new frame every
+    //iteration.The names must also not clash with the loop variable
+    private static boolean canShareFrame(Stmt.For stmt){
+        Stmt.Block body = (Stmt.Block) stmt.body;
+        if(stmt.initializer instanceof Stmt.Var){
+            String name = ((Stmt.Var) stmt.initializer).name.lexeme;
+            for(Stmt statement : body.statements){
+                if(statement instanceof Stmt.Var && ((Stmt.Var) statement).name.lexeme.equals(name)) return false;
+            }
+        }
+        return !makesClosure(body);
+    }
+
+    //anonymous fun arguments are declared in the scope they are passed in,
+    //a block with one of them anywhere keeps its scope
+    private static boolean declares(Stmt.Block block){
+        for(Stmt statement : block.statements){
+            if(statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class){
+                return true;
+            }
+        }
+        return makesClosure(block);
+    }
+
+    //whether a function,class or anonymous fun argument appears in stmt
+    static boolean makesClosure(Stmt stmt){
+        if(stmt==null) return false;
+        if(stmt instanceof Stmt.Function || stmt instanceof Stmt.Class || stmt instanceof Stmt.GetField){
+            return true;
+        }
+        if(stmt instanceof Stmt.Block){
+            for(Stmt statement : ((Stmt.Block) stmt).statements){
+                if(makesClosure(statement)) return true;
+            }
+            return false;
+        }
+        if(stmt instanceof Stmt.If){
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return makesClosure(ifStmt.condition) || makesClosure(ifStmt.thenBranch) || makesClosure(ifStmt.elseBranch);
+        }
+        if(stmt instanceof Stmt.While){
+            return makesClosure(((Stmt.While) stmt).condition) || makesClosure(((Stmt.While) stmt).statement);
+        }
+        if(stmt instanceof Stmt.For){
+            Stmt.For forStmt = (Stmt.For) stmt;
+            return makesClosure(forStmt.initializer) || makesClosure(forStmt.condition) ||
+                makesClosure(forStmt.increment) || makesClosure(forStmt.body);
+        }
+        if(stmt instanceof Stmt.Expression) return makesClosure(((Stmt.Expression) stmt).expression);
+        if(stmt instanceof Stmt.Print) return makesClosure(((Stmt.Print) stmt).expression);
+        if(stmt instanceof Stmt.Var) return makesClosure(((Stmt.Var) stmt).initializer);
+        if(stmt instanceof Stmt.Return) return makesClosure(((Stmt.Return) stmt).value);
+        return false;
+    }
+
+    static boolean makesClosure(Expr expr){
+        if(expr instanceof Expr.Call){
+            Expr.Call call = (Expr.Call) expr;
+            for(Stmt argument : call.arguments){
+                if(makesClosure(argument)) return true;
+            }
+            return makesClosure(call.callee);
+        }
+        if(expr instanceof Expr.Binary){
+            return makesClosure(((Expr.Binary) expr).left) || makesClosure(((Expr.Binary) expr).right);
+        }
+        if(expr instanceof Expr.Logical){
+            return makesClosure(((Expr.Logical) expr).left) || makesClosure(((Expr.Logical) expr).right);
+        }
+        if(expr instanceof Expr.Unary) return makesClosure(((Expr.Unary) expr).right);
+        if(expr instanceof Expr.Grouping) return makesClosure(((Expr.Grouping) expr).expression);
+        if(expr instanceof Expr.Assign) return makesClosure(((Expr.Assign) expr).value);
+        if(expr instanceof Expr.Get) return makesClosure(((Expr.Get) expr).object);
+        if(expr instanceof Expr.Set){
+            return makesClosure(((Expr.Set) expr).object) || makesClosure(((Expr.Set) expr).value);
+        }
+        return false;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
@@ -416,6 +685,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if(currentLoop!=LoopType.LOOP){
             Lox.error(new Token(TokenType.BREAK,"Break",null,0),"Break should be used in loop.");
         }
+        expr.loop = currentLoop==LoopType.LOOP;
         return null;
     }
 
@@ -424,8 +694,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         //we are searching the variable in the staticScope
         if(currentFunction==FunctionType.STATIC_METHOD || currentField==getField.STATIC_FIELD){
             for(int i=staticClassScope.size() -1;i>=0;i--){
-                if(staticClassScope.get(i).containsKey(name.lexeme)){
-                    intepreter.resolve(expr,staticClassScope.size() -1 -i);
+                Local local = staticClassScope.get(i).get(name.lexeme);
+                if(local!=null){
+                    setResolved(expr,staticClassScope.size() -1 -i,local.slot);
                     return;
                 }
             }
@@ -433,14 +704,67 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         //If we are in the regular scope ,we search there for the variable
         else {
             for (int i = scopes.size() - 1; i >= 0; i--) {
-                if (scopes.get(i).containsKey(name.lexeme)) {
-                    intepreter.resolve(expr, scopes.size() - 1 - i);
+                Local local = scopes.get(i).get(name.lexeme);
+                if (local != null) {
+                    int[] place = reach(flatFunctions.size() - 1,scopes.size() - 1,local,i);
+                    setResolved(expr,place[0],place[1]);
+                    if(expr instanceof Expr.Variable || expr instanceof Expr.Assign){
+                        local.uses.add(expr);
+                    }
+                    if(expr instanceof Expr.Assign) local.assigned = true;
                     return;
                 }
             }
         }
 
         //Not found.Assume it is global
+        setResolved(expr,-1,0);
+    }
+
+    //depth and slot of local,declared in scopes[index],as seen from the
+    //frame of scopes[top].Inside the fun flatFunctions[function] a variable
+    //from outside of it is read from the frame of captured variables
+    private int[] reach(int function,int top,Local local,int index){
+        if(function<0 || flatFunctions.get(function).base<=index){
+            return new int[]{top - index,local.slot};
+        }
+        FlatFunction flat = flatFunctions.get(function);
+        return new int[]{top - flat.base + 1,capture(function,local,index)};
+    }
+
+    //the captured slot of local in flatFunctions[function],the closure copies
+    //it from the frame the fun is made in,which may capture it in turn
+    private int capture(int function,Local local,int index){
+        FlatFunction flat = flatFunctions.get(function);
+        int slot = flat.captured.indexOf(local);
+        if(slot!=-1) return slot;
+        int[] source = reach(function - 1,flat.base - 1,local,index);
+        flat.captured.add(local);
+        flat.depths.add(source[0]);
+        flat.slots.add(source[1]);
+        local.captured = true;
+        if(!local.initialized) local.assigned = true;
+        return flat.captured.size() - 1;
+    }
+
+    //the result is kept on the node itself,the interpreter reads it from there
+    private void setResolved(Expr expr,int depth,int slot){
+        if(expr instanceof Expr.Variable){
+            ((Expr.Variable) expr).depth = depth;
+            ((Expr.Variable) expr).slot = slot;
+        }
+        else if(expr instanceof Expr.Assign){
+            ((Expr.Assign) expr).depth = depth;
+            ((Expr.Assign) expr).slot = slot;
+        }
+        else if(expr instanceof Expr.This){
+            ((Expr.This) expr).depth = depth;
+            ((Expr.This) expr).slot = slot;
+        }
+        else if(expr instanceof Expr.Super){
+            ((Expr.Super) expr).depth = depth;
+            ((Expr.Super) expr).slot = slot;
+        }
     }
 
 
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+//String value made by "+" that is not copied until it is read.Building a
+//long string piece by piece would copy everything built so far at every
+//step,a rope only links the two parts and is flattened once,on first read.
+//Interpreter.binary makes them,stringify,isEqual and the comparisons read
+//them through toString
+final class Rope {
+    //shorter results are copied right away,a rope would not pay off
+    static final int MIN_LENGTH = 64;
+
+    //String or Rope,dropped once the rope is flattened
+    private Object left;
+    private Object right;
+    private final int length;
+    private String flat = null;
+
+    private Rope(Object left,Object right,int length){
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    //left and right are each a String or a Rope
+    static Object concat(Object left,Object right){
+        int length = length(left) + length(right);
+        if(length<MIN_LENGTH){
+            return left.toString().concat(right.toString());
+        }
+        return new Rope(left,right,length);
+    }
+
+    static boolean isString(Object value){
+        return value instanceof String || value instanceof Rope;
+    }
+
+    //the String behind value when it is a rope,value otherwise
+    static Object flat(Object value){
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    private static int length(Object value){
+        return value instanceof Rope ? ((Rope) value).length : ((String) value).length();
+    }
+
+    @Override
+    public String toString(){
+        if(flat!=null){
+            return flat;
+        }
+        //a string built in a loop is a rope as deep as the loop ran,so the
+        //parts are copied from the end with a stack instead of recursion
+        char[] chars = new char[length];
+        int end = length;
+        ArrayDeque<Object> parts = new ArrayDeque<>();
+        parts.push(left);
+        parts.push(right);
+        while(!parts.isEmpty()){
+            Object part = parts.pop();
+            if(part instanceof Rope && ((Rope) part).flat==null){
+                Rope rope = (Rope) part;
+                parts.push(rope.left);
+                parts.push(rope.right);
+                continue;
+            }
+            String text = part.toString();
+            end -= text.length();
+            text.getChars(0,text.length(),chars,end);
+        }
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+}
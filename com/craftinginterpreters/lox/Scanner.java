@@ -1,61 +1,76 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.CharBuffer;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+//Scans straight over the chars of the source,the CharBuffer decoded from
+//a script file is used without a copy.Tokens are only recorded as a type and a
+//range of the source,see TokenBuffer,and are scanned when the parser
+//pulls them
 public class Scanner {
-    
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+
+    //set with --scan-stats
+    static boolean collectStats = false;
+    private static long scannedChars = 0;
+    private static long scanNanos = 0;
+
+    private final char[] source;
+    //the window of source that is scanned
+    private final int offset;
+    private final int end;
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("fun",    FUN);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
-        keywords.put("break",  BREAK);
-        keywords.put("static", STATIC);
+    Scanner(CharSequence source){
+        if(source instanceof CharBuffer && ((CharBuffer) source).hasArray()){
+            CharBuffer buffer = (CharBuffer) source;
+            this.source = buffer.array();
+            this.offset = buffer.arrayOffset() + buffer.position();
+            this.end = offset + buffer.remaining();
+        }else{
+            this.source = source.toString().toCharArray();
+            this.offset = 0;
+            this.end = this.source.length;
+        }
+        this.current = offset;
+        this.tokens = new TokenBuffer(this,this.source);
     }
 
-    Scanner(String source){
-        this.source = source;
-    }
 
+    TokenBuffer tokens(){
+        return tokens;
+    }
 
-    List<Token> scanTokens(){
-        while(!isAtEnd()){
+    //scans on until one more token is in the buffer,past the end that is EOF
+    void scanNext(){
+        long begin = collectStats ? System.nanoTime() : 0;
+        int from = current;
+        int count = tokens.count();
+        while(tokens.count()==count){
+            if(isAtEnd()){
+                tokens.add(EOF,current,0,line);
+                break;
+            }
             start = current;
             scanToken();
         }
+        if(collectStats){
+            scanNanos += System.nanoTime() - begin;
+            scannedChars += current - from;
+        }
+    }
 
-        tokens.add(new Token(EOF,"",null,line));
-        return tokens;
+    static void printStats(){
+        double seconds = scanNanos / 1e9;
+        System.err.printf("[scan] %d chars in %.2f ms, %.1f MB/s%n",
+                scannedChars,seconds * 1000,seconds==0 ? 0.0 : scannedChars / 1e6 / seconds);
     }
 
     private boolean isAtEnd(){
-        return current >= source.length();
+        return current >= end;
     }
 
     private void scanToken(){
@@ -73,10 +88,10 @@ public class Scanner {
             case '*' : addToken(STAR);break;
             case '?' : addToken(QUESTION);break;
             case ':' : addToken(DOUBLECOLON);break;
-            case '!' : addToken(match('=') ? BANG_EQUAL : BANG); break;
-            case '=' : addToken(match('=') ? EQUAL_EQUAL : EQUAL);break;
-            case '<' : addToken(match('=') ? LESS_EQUAL : LESS);break;
-            case '>' : addToken(match('=') ? GREATER_EQUAL : GREATER);break;
+            case '!' : if(match('=')) addToken(BANG_EQUAL); else addToken(BANG); break;
+            case '=' : if(match('=')) addToken(EQUAL_EQUAL); else addToken(EQUAL);break;
+            case '<' : if(match('=')) addToken(LESS_EQUAL); else addToken(LESS);break;
+            case '>' : if(match('=')) addToken(GREATER_EQUAL); else addToken(GREATER);break;
             case '/' :
                 if(match('/')){
                     //this is comment and goes until the end of the line
@@ -117,10 +132,8 @@ public class Scanner {
     private void comment(){
         boolean closed = false;
         while(!isAtEnd()){
-            System.out.println(peek());
             if(peek()=='\n'){
                 line++;
-                System.out.println("Line is now : " + line);
             }
             else if(peek()=='*' && peekNext()=='/'){
                 advance();advance();
@@ -139,12 +152,58 @@ public class Scanner {
     private void identifier(){
         while(isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start,current);
-        TokenType type = keywords.get(text);
+        addToken(keyword());
+    }
 
-        if(type==null) type = IDENTIFIER;
+    //keyword of the identifier just scanned,by its first letter like clox does
+    private TokenType keyword(){
+        switch (source[start]){
+            case 'a': return rest("and",AND);
+            case 'b': return rest("break",BREAK);
+            case 'c': return rest("class",CLASS);
+            case 'e': return rest("else",ELSE);
+            case 'f':
+                if(current - start>1){
+                    switch (source[start + 1]){
+                        case 'a': return rest("false",FALSE);
+                        case 'o': return rest("for",FOR);
+                        case 'u': return rest("fun",FUN);
+                    }
+                }
+                break;
+            case 'i': return rest("if",IF);
+            case 'n': return rest("nil",NIL);
+            case 'o': return rest("or",OR);
+            case 'p': return rest("print",PRINT);
+            case 'r': return rest("return",RETURN);
+            case 's':
+                if(current - start>1){
+                    switch (source[start + 1]){
+                        case 'u': return rest("super",SUPER);
+                        case 't': return rest("static",STATIC);
+                    }
+                }
+                break;
+            case 't':
+                if(current - start>1){
+                    switch (source[start + 1]){
+                        case 'h': return rest("this",THIS);
+                        case 'r': return rest("true",TRUE);
+                    }
+                }
+                break;
+            case 'v': return rest("var",VAR);
+            case 'w': return rest("while",WHILE);
+        }
+        return IDENTIFIER;
+    }
 
-        addToken(type);
+    private TokenType rest(String keyword,TokenType type){
+        if(current - start!=keyword.length()) return IDENTIFIER;
+        for(int i=1;i<keyword.length();i++){
+            if(source[start + i]!=keyword.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private boolean isAlpha(char c){
@@ -169,7 +228,7 @@ public class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(NUMBER,Double.parseDouble(source.substring(start,current)));
+        addToken(NUMBER);
     }
 
     private void string(){
@@ -187,27 +246,22 @@ public class Scanner {
         //The closing ".
         advance();
 
-        String value = source.substring(start+1,current-1);
-        addToken(STRING,value);
+        addToken(STRING);
     }
 
     private char advance(){
         current++;
-        return source.charAt(current-1);
+        return source[current-1];
     }
 
+    //a string spanning lines gets the line it ends on,like before
     private void addToken(TokenType type){
-        addToken(type,null);
-    }
-
-    private void addToken(TokenType type,Object literal){
-        String text = source.substring(start,current);
-        tokens.add(new Token(type,text,literal,line));
+        tokens.add(type,start,current - start,line);
     }
 
     private boolean match(char ch){
         if(isAtEnd())return false;
-        if(source.charAt(current) != ch) return false;
+        if(source[current] != ch) return false;
 
         current++;
         return true;
@@ -215,11 +269,11 @@ public class Scanner {
 
     private char peek(){
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return source[current];
     }
 
     private char peekNext(){
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if(current + 1 >= end) return '\0';
+        return source[current+1];
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//Layout of the fields of an instance,shared by every instance that got
+//the same fields in the same order.Each class has the root of a tree of
+//shapes,adding a field follows (or makes) the transition for that name,
+//so instances only keep an Object[] indexed by the slots of their shape
+class Shape {
+    //number of fields,the new field of a transition gets this slot
+    final int size;
+    private final Map<String,Integer> slots;
+    private Map<String,Shape> transitions = null;
+
+    Shape(){
+        this.size = 0;
+        this.slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent,String name){
+        this.size = parent.size + 1;
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name,parent.size);
+    }
+
+    //-1 when the shape has no such field
+    int slot(String name){
+        Integer slot = slots.get(name);
+        return slot==null ? -1 : slot;
+    }
+
+    Shape with(String name){
+        if(transitions==null){
+            transitions = new HashMap<>();
+        }
+        Shape next = transitions.get(name);
+        if(next==null){
+            next = new Shape(this,name);
+            transitions.put(name,next);
+        }
+        return next;
+    }
+}
@@ -3,6 +3,10 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 abstract class Stmt {
+   //children are not final,the Optimizer replaces folded ones in place
+   //node made by the ClosureCompiler,built the first time the statement runs
+   StmtNode compiled;
+
    interface Visitor<R> {
      R visitExpressionStmt(Expression stmt);
      R visitPrintStmt(Print stmt);
@@ -10,6 +14,7 @@ abstract class Stmt {
      R visitBlockStmt(Block stmt);
      R visitIfStmt(If stmt);
      R visitWhileStmt(While stmt);
+     R visitForStmt(For stmt);
      R visitBreakStmt(Break stmt);
      R visitFunctionStmt(Function stmt);
      R visitReturnStmt(Return stmt);
@@ -28,7 +33,7 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
-        final Expr expression;
+        Expr expression;
 }
 
     static class If extends Stmt{
@@ -43,9 +48,9 @@ abstract class Stmt {
            return visitor.visitIfStmt(this);
        }
 
-       final Expr condition;
-       final Stmt thenBranch;
-       final Stmt elseBranch;
+       Expr condition;
+       Stmt thenBranch;
+       Stmt elseBranch;
     }
 
     static class Function extends Stmt{
@@ -65,6 +70,25 @@ abstract class Stmt {
        final List<Token> params;
        final List<Stmt> body;
        final boolean staticMethod;
+       //filled by the resolver: slot of the name, size of the frame
+       //and size of the "this" frame when it is a method
+       int slot = -1;
+       int slots;
+       int thisSlots;
+       //jit tier: calls plus loop iterations so far,and the code once compiled
+       long heat = 0;
+       Jit.Compiled jit;
+       boolean jitRejected = false;
+       //fun declarations and anonymous funs: where the variables the body
+       //uses from outside are when the closure is made,null for methods
+       int[] captureDepths;
+       int[] captureSlots;
+       //parameters that live in an Environment.Cell,and whether the name does
+       int[] cellParams;
+       boolean cell = false;
+       //nothing made in the body can keep the frame after the call,so it
+       //comes from Interpreter.acquireFrame instead of the heap
+       boolean reuseFrame = false;
     }
 
     static class GetField extends Stmt{
@@ -82,6 +106,9 @@ abstract class Stmt {
        final Token name;
        final List<Stmt> body;
        final boolean staticField;
+       int slot = -1;
+       int slots;
+       int thisSlots;
     }
 
    static class Print extends Stmt {
@@ -94,7 +121,7 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
-        final Expr expression;
+        Expr expression;
 }
 
     static class Block extends Stmt{
@@ -107,6 +134,10 @@ abstract class Stmt {
            return visitor.visitBlockStmt(this);
        }
        final List<Stmt> statements;
+       int slots;
+       //false when the resolver put the variables of the block in the frame
+       //of the statement around it,the block then runs without a frame of its own
+       boolean newFrame = true;
     }
 
     static class Return extends Stmt{
@@ -121,7 +152,9 @@ abstract class Stmt {
        }
 
        final Token keyword;
-       final Expr value;
+       Expr value;
+       //set by the resolver when value is a call whose result the function returns as is
+       boolean tail = false;
     }
 
    static class Var extends Stmt {
@@ -136,7 +169,11 @@ abstract class Stmt {
     }
 
         final Token name;
-        final Expr initializer;
+        Expr initializer;
+        int slot = -1;
+        boolean cell = false;
+        //the tree walker stores the value unboxed until it is not a number
+        boolean numeric = true;
 }
     //StaticVar is needed in the resolver
     static class StaticVar extends Stmt{
@@ -148,7 +185,8 @@ abstract class Stmt {
         <R> R accept(Visitor<R> visitor) {return visitor.visitStaticVarStmt(this);}
 
         final Token name;
-       final Expr initializer;
+       Expr initializer;
+       int slot = -1;
     }
 
     static class While extends Stmt {
@@ -162,13 +200,39 @@ abstract class Stmt {
            return visitor.visitWhileStmt(this);
        }
 
-       final Expr condition;
-       final Stmt statement;
+       Expr condition;
+       Stmt statement;
+    }
+
+    //all the clauses run in one frame,it holds the loop variable and,when
+    //nothing in the body can capture them,the variables of the body block
+    static class For extends Stmt {
+       For(Stmt initializer,Expr condition,Stmt.Expression increment,Stmt body){
+           this.initializer = initializer;
+           this.condition = condition;
+           this.increment = increment;
+           this.body = body;
+       }
+
+       @Override
+       <R> R accept(Visitor<R> visitor){
+           return visitor.visitForStmt(this);
+       }
+
+       Stmt initializer;
+       Expr condition;
+       //a statement,so it echoes like any other expression statement
+       Stmt.Expression increment;
+       Stmt body;
+       int slots;
     }
 
     static class Break extends Stmt{
        Break(){}
 
+       //set by the resolver when a loop of the same function encloses the break
+       boolean loop = false;
+
        @Override
         <R> R accept(Visitor<R> visitor){
            return visitor.visitBreakStmt(this);
@@ -190,6 +254,9 @@ abstract class Stmt {
        final Token name;
        final Expr.Variable superclass;
        final List<Stmt> methods;
+       int slot = -1;
+       int staticSlots;
+       boolean cell = false;
     }
 
    abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,319 @@
+package com.craftinginterpreters.lox;
+
+//Executable form of a statement made by the ClosureCompiler.
+//execute tells how the statement finished,like the visitors of Interpreter
+abstract class StmtNode {
+
+    abstract Completion execute(Interpreter interpreter);
+
+    static final class ExpressionNode extends StmtNode {
+        private final ExprNode expression;
+
+        ExpressionNode(ExprNode expression){
+            this.expression = expression;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            expression.evaluateForEffect(interpreter);
+            return Completion.NORMAL;
+        }
+    }
+
+    //expression statements that are not assignments,calls or variables
+    //print their raw value outside of if blocks,like visitExpressionStmt
+    static final class EchoNode extends StmtNode {
+        private final ExprNode expression;
+
+        EchoNode(ExprNode expression){
+            this.expression = expression;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            Object value = expression.evaluate(interpreter);
+            if(!interpreter.ifBlock){
+                System.out.println(value);
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class PrintNode extends StmtNode {
+        private final ExprNode expression;
+
+        PrintNode(ExprNode expression){
+            this.expression = expression;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            System.out.println(Interpreter.stringify(expression.evaluate(interpreter)));
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class DefineLocalNode extends StmtNode {
+        private final int slot;
+        private final ExprNode initializer;
+        //numbers are stored unboxed until the first value that is not one
+        private boolean numeric = true;
+
+        DefineLocalNode(int slot,ExprNode initializer){
+            this.slot = slot;
+            this.initializer = initializer;
+            if(initializer==null) numeric = false;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            if(numeric){
+                double value;
+                try{
+                    value = initializer.evaluateNumber(interpreter);
+                }catch (ExprNode.NotNumber notNumber){
+                    numeric = false;
+                    interpreter.environment.values[slot] = notNumber.value;
+                    return Completion.NORMAL;
+                }
+                interpreter.environment.setNumber(slot,value);
+                return Completion.NORMAL;
+            }
+            Object value = initializer==null ? null : initializer.evaluate(interpreter);
+            interpreter.environment.values[slot] = value;
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class DefineCellNode extends StmtNode {
+        private final int slot;
+        private final ExprNode initializer;
+
+        DefineCellNode(int slot,ExprNode initializer){
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            //in the slot first,a closure made in the initializer captures it
+            Environment.Cell cell = new Environment.Cell(null);
+            interpreter.environment.values[slot] = cell;
+            if(initializer!=null) cell.value = initializer.evaluate(interpreter);
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class DefineGlobalNode extends StmtNode {
+        private final String name;
+        private final ExprNode initializer;
+
+        DefineGlobalNode(String name,ExprNode initializer){
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            Object value = initializer==null ? null : initializer.evaluate(interpreter);
+            interpreter.globals.define(name,value);
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class BlockNode extends StmtNode {
+        private final int slots;
+        private final StmtNode[] statements;
+
+        BlockNode(int slots,StmtNode[] statements){
+            this.slots = slots;
+            this.statements = statements;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            Environment previous = interpreter.environment;
+            interpreter.environment = new Environment(previous,slots);
+            try{
+                for(StmtNode statement : statements){
+                    Completion completion = statement.execute(interpreter);
+                    if(completion!=Completion.NORMAL) return completion;
+                }
+            }finally {
+                interpreter.environment = previous;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    //a block whose variables live in the frame around it
+    static final class SequenceNode extends StmtNode {
+        private final StmtNode[] statements;
+
+        SequenceNode(StmtNode[] statements){
+            this.statements = statements;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            for(StmtNode statement : statements){
+                Completion completion = statement.execute(interpreter);
+                if(completion!=Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class IfNode extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        IfNode(ExprNode condition,StmtNode thenBranch,StmtNode elseBranch){
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            Completion completion;
+            if(Interpreter.isTruthy(condition.evaluate(interpreter))){
+                interpreter.ifBlock = true;
+                completion = thenBranch.execute(interpreter);
+            }else if(elseBranch!=null){
+                interpreter.ifBlock = true;
+                completion = elseBranch.execute(interpreter);
+            }else{
+                return Completion.NORMAL;
+            }
+            //like the visitor,a return out of a branch leaves ifBlock set
+            if(completion!=Completion.RETURN) interpreter.ifBlock = false;
+            return completion;
+        }
+    }
+
+    static final class WhileNode extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode body;
+
+        WhileNode(ExprNode condition,StmtNode body){
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            while(Interpreter.isTruthy(condition.evaluate(interpreter))){
+                Completion completion = body.execute(interpreter);
+                if(completion==Completion.RETURN) return completion;
+                if(completion==Completion.BREAK) break;
+                interpreter.backEdges++;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class ForNode extends StmtNode {
+        private final int slots;
+        private final StmtNode initializer;
+        private final ExprNode condition;
+        private final StmtNode increment;
+        private final StmtNode body;
+
+        ForNode(int slots,StmtNode initializer,ExprNode condition,StmtNode increment,StmtNode body){
+            this.slots = slots;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            Environment previous = interpreter.environment;
+            interpreter.environment = new Environment(previous,slots);
+            try{
+                if(initializer!=null) initializer.execute(interpreter);
+                while(Interpreter.isTruthy(condition.evaluate(interpreter))){
+                    Completion completion = body.execute(interpreter);
+                    if(completion==Completion.RETURN) return completion;
+                    if(completion==Completion.BREAK) break;
+                    if(increment!=null) increment.execute(interpreter);
+                    interpreter.backEdges++;
+                }
+            }finally {
+                interpreter.environment = previous;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class BreakNode extends StmtNode {
+        @Override
+        Completion execute(Interpreter interpreter){
+            return Completion.BREAK;
+        }
+    }
+
+    static final class ReturnNode extends StmtNode {
+        private final ExprNode value;
+
+        ReturnNode(ExprNode value){
+            this.value = value;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            interpreter.returnValue = value==null ? null : value.evaluate(interpreter);
+            return Completion.RETURN;
+        }
+    }
+
+    static final class FunctionNode extends StmtNode {
+        private final Stmt.Function declaration;
+
+        FunctionNode(Stmt.Function declaration){
+            this.declaration = declaration;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            if(declaration.cell){
+                Environment.Cell cell = new Environment.Cell(null);
+                interpreter.environment.values[declaration.slot] = cell;
+                cell.value = LoxFunction.capture(declaration,interpreter.environment);
+                return Completion.NORMAL;
+            }
+            LoxFunction function = LoxFunction.capture(declaration,interpreter.environment);
+            if(declaration.slot==-1){
+                interpreter.globals.define(declaration.name.lexeme,function);
+            }else{
+                interpreter.environment.values[declaration.slot] = function;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class EmptyNode extends StmtNode {
+        @Override
+        Completion execute(Interpreter interpreter){
+            return Completion.NORMAL;
+        }
+    }
+
+    //classes are built once,the interpreter does it and the method
+    //bodies get compiled the first time they run
+    static final class InterpretedNode extends StmtNode {
+        private final Stmt stmt;
+
+        InterpretedNode(Stmt stmt){
+            this.stmt = stmt;
+        }
+
+        @Override
+        Completion execute(Interpreter interpreter){
+            return stmt.accept(interpreter);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+//Tokens of one source as parallel arrays instead of an object each.The
+//parser walks them by index and asks for a Token only when a tree node or
+//an error message keeps one,its lexeme and literal are read from the
+//source then.The arrays are a ring the scanner fills as the parser reads,
+//the parser never looks further back than the previous token
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int CAPACITY = 8;
+    private static final int MASK = CAPACITY - 1;
+
+    private final Scanner scanner;
+    private final char[] source;
+    private final byte[] types = new byte[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    //tokens scanned so far,the ring holds the last CAPACITY of them
+    private int count = 0;
+
+    //names and punctuation seen so far,open addressing on the same hash
+    //as String,so every token spelled the same shares one lexeme
+    private String[] names = new String[256];
+    private int nameCount = 0;
+
+    TokenBuffer(Scanner scanner,char[] source){
+        this.scanner = scanner;
+        this.source = source;
+    }
+
+    void add(TokenType type,int start,int length,int line){
+        int slot = count & MASK;
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        count++;
+    }
+
+    int count(){
+        return count;
+    }
+
+    //the slot of a token,scanning up to it first
+    private int slot(int index){
+        while(index>=count) scanner.scanNext();
+        return index & MASK;
+    }
+
+    TokenType type(int index){
+        return TYPES[types[slot(index)]];
+    }
+
+    Token token(int index){
+        TokenType type = type(index);
+        int slot = index & MASK;
+        int start = starts[slot];
+        int length = lengths[slot];
+        int line = lines[slot];
+        switch (type){
+            case NUMBER:
+            case STRING:
+                return new Token(type,new String(source,start,length),literal(index),line);
+            case EOF:
+                return new Token(EOF,"",null,line);
+            default:
+                return new Token(type,name(start,length),null,line);
+        }
+    }
+
+    //the value of a NUMBER or STRING token,a string is without its quotes
+    Object literal(int index){
+        TokenType type = type(index);
+        int start = starts[index & MASK];
+        int length = lengths[index & MASK];
+        switch (type){
+            case NUMBER: return Double.parseDouble(new String(source,start,length));
+            case STRING: return new String(source,start + 1,length - 2);
+            default: return null;
+        }
+    }
+
+    private String name(int start,int length){
+        int hash = 0;
+        for(int i=start;i<start + length;i++){
+            hash = 31 * hash + source[i];
+        }
+        int mask = names.length - 1;
+        int index = hash & mask;
+        for(String name = names[index];name!=null;name = names[index]){
+            if(name.length()==length && sameName(name,start)) return name;
+            index = (index + 1) & mask;
+        }
+        String name = new String(source,start,length);
+        names[index] = name;
+        if(++nameCount * 2>names.length) growNames();
+        return name;
+    }
+
+    private boolean sameName(String name,int start){
+        for(int i=0;i<name.length();i++){
+            if(name.charAt(i)!=source[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void growNames(){
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for(String name : old){
+            if(name==null) continue;
+            int index = name.hashCode() & mask;
+            while(names[index]!=null) index = (index + 1) & mask;
+            names[index] = name;
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.Chunk.*;
+
+//Stack based virtual machine running the code of VmCompiler.
+//It gives the same output as the Interpreter for the same program
+class VM {
+
+    private static final int FRAMES_MAX = 1 << 16;
+
+    private static class CallFrame{
+        VmClosure closure;
+        int ip;
+        //stack slot of the callee (or receiver),locals follow it
+        int base;
+    }
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+
+    private final VmGlobals globals = new VmGlobals();
+
+    //same flag as in the Interpreter
+    private boolean ifBlock = false;
+
+    VM(){
+        globals.define("clock",Interpreter.clock);
+        for(int i=0;i<frames.length;i++){
+            frames[i] = new CallFrame();
+        }
+    }
+
+    void interpret(List<Stmt> statements){
+        VmFunction script = new VmCompiler(globals).compile(statements);
+        if(script==null) return;
+
+        try{
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            call(closure,0,null);
+            run();
+        }catch (RuntimeError error){
+            Lox.runtimeError(error);
+        }finally {
+            Arrays.fill(stack,0,sp,null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void run(){
+        CallFrame frame = frames[frameCount-1];
+        Chunk chunk = frame.closure.function.chunk;
+        byte[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for(;;){
+            int start = ip;
+            switch (code[ip++]){
+                case OP_CONSTANT:
+                    push(constants[readShort(code,ip)]);
+                    ip += 2;
+                    break;
+                case OP_NIL: push(null); break;
+                case OP_TRUE: push(true); break;
+                case OP_FALSE: push(false); break;
+                case OP_POP:
+                    stack[--sp] = null;
+                    break;
+                case OP_GET_LOCAL:
+                    push(stack[base + readShort(code,ip)]);
+                    ip += 2;
+                    break;
+                case OP_SET_LOCAL:
+                    stack[base + readShort(code,ip)] = stack[sp-1];
+                    ip += 2;
+                    break;
+                case OP_GET_GLOBAL: {
+                    int slot = readShort(code,ip);
+                    ip += 2;
+                    Object value = globals.values[slot];
+                    if(value==VmGlobals.UNDEFINED){
+                        throw new RuntimeError(chunk.tokens[start],"Undefined variable '" + globals.names[slot] + "'.");
+                    }
+                    if(value==null){
+                        throw new RuntimeError(chunk.tokens[start],"Unitialized variable" + globals.names[slot]);
+                    }
+                    push(value);
+                    break;
+                }
+                case OP_DEFINE_GLOBAL:
+                    globals.values[readShort(code,ip)] = pop();
+                    ip += 2;
+                    break;
+                case OP_SET_GLOBAL: {
+                    int slot = readShort(code,ip);
+                    ip += 2;
+                    if(globals.values[slot]==VmGlobals.UNDEFINED){
+                        throw new RuntimeError(chunk.tokens[start],"Undefined variable '" + globals.names[slot] + "'.");
+                    }
+                    globals.values[slot] = stack[sp-1];
+                    break;
+                }
+                case OP_GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[readShort(code,ip)];
+                    ip += 2;
+                    push(upvalue.slot>=0 ? stack[upvalue.slot] : upvalue.closed);
+                    break;
+                }
+                case OP_SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[readShort(code,ip)];
+                    ip += 2;
+                    if(upvalue.slot>=0){
+                        stack[upvalue.slot] = stack[sp-1];
+                    }else{
+                        upvalue.closed = stack[sp-1];
+                    }
+                    break;
+                }
+                case OP_GET_STATIC:
+                    push(frame.closure.statics[readShort(code,ip)]);
+                    ip += 2;
+                    break;
+                case OP_SET_STATIC:
+                    frame.closure.statics[readShort(code,ip)] = stack[sp-1];
+                    ip += 2;
+                    break;
+                case OP_GET_PROPERTY: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    VmClosure getter = getProperty(name,chunk.tokens[start]);
+                    if(getter!=null){
+                        //the receiver or the getter itself is on top of the stack already
+                        frame.ip = ip;
+                        call(getter,0,chunk.tokens[start]);
+                        frame = frames[frameCount-1];
+                        chunk = frame.closure.function.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OP_SET_PROPERTY: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    Object object = stack[sp-2];
+                    if(!(object instanceof VmInstance)){
+                        throw new RuntimeError(chunk.tokens[start],"Only instances have fields.");
+                    }
+                    Object value = pop();
+                    ((VmInstance) object).set(name,value);
+                    stack[sp-1] = value;
+                    break;
+                }
+                case OP_GET_SUPER: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) pop();
+                    VmClosure method = superclass.findMethod(name);
+                    if(method==null){
+                        throw new RuntimeError(chunk.tokens[start],"Undefined property '" + name + "'.");
+                    }
+                    if(method.staticMember){
+                        throw new RuntimeError(chunk.tokens[start],"Can't call static method this way.");
+                    }
+                    stack[sp-1] = new VmBoundMethod(stack[sp-1],method);
+                    break;
+                }
+                case OP_EQUAL: {
+                    Object right = pop();
+                    stack[sp-1] = Interpreter.isEqual(stack[sp-1],right);
+                    break;
+                }
+                case OP_NOT_EQUAL: {
+                    Object right = pop();
+                    stack[sp-1] = !Interpreter.isEqual(stack[sp-1],right);
+                    break;
+                }
+                case OP_GREATER: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left > (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_GREATER_EQUAL: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left >= (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_LESS: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left < (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_LESS_EQUAL: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left <= (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_ADD: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left + (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_SUBTRACT: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left - (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_MULTIPLY: {
+                    Object right = pop();
+                    Object left = stack[sp-1];
+                    if(left instanceof Double && right instanceof Double){
+                        stack[sp-1] = (double) left * (double) right;
+                    }else{
+                        stack[sp-1] = Interpreter.binary(chunk.tokens[start],left,right);
+                    }
+                    break;
+                }
+                case OP_DIVIDE: {
+                    Object right = pop();
+                    stack[sp-1] = Interpreter.binary(chunk.tokens[start],stack[sp-1],right);
+                    break;
+                }
+                case OP_NOT:
+                    stack[sp-1] = !Interpreter.isTruthy(stack[sp-1]);
+                    break;
+                case OP_NEGATE:
+                    stack[sp-1] = -(double) stack[sp-1];
+                    break;
+                case OP_PRINT:
+                    System.out.println(Interpreter.stringify(pop()));
+                    break;
+                case OP_ECHO: {
+                    Object value = pop();
+                    if(!ifBlock){
+                        System.out.println(value);
+                    }
+                    break;
+                }
+                case OP_IF_BLOCK_ON: ifBlock = true; break;
+                case OP_IF_BLOCK_OFF: ifBlock = false; break;
+                case OP_JUMP:
+                    ip += 2 + readShort(code,ip);
+                    break;
+                case OP_JUMP_IF_FALSE:
+                    if(!Interpreter.isTruthy(stack[sp-1])){
+                        ip += 2 + readShort(code,ip);
+                    }else{
+                        ip += 2;
+                    }
+                    break;
+                case OP_LOOP:
+                    ip = ip + 2 - readShort(code,ip);
+                    break;
+                case OP_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    if(callValue(stack[sp-1-argCount],argCount,chunk.tokens[start])){
+                        frame = frames[frameCount-1];
+                        chunk = frame.closure.function.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OP_TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp-1-argCount];
+                    if(callee instanceof VmClosure || callee instanceof VmBoundMethod){
+                        VmClosure closure;
+                        if(callee instanceof VmBoundMethod){
+                            VmBoundMethod bound = (VmBoundMethod) callee;
+                            stack[sp-1-argCount] = bound.receiver;
+                            closure = bound.method;
+                        }else{
+                            closure = (VmClosure) callee;
+                        }
+                        checkArity(closure.function.arity,argCount,chunk.tokens[start]);
+                        //the callee and its arguments move down over the current frame
+                        closeUpvalues(base);
+                        System.arraycopy(stack,sp-1-argCount,stack,base,argCount + 1);
+                        Arrays.fill(stack,base + argCount + 1,sp,null);
+                        sp = base + argCount + 1;
+                        ensureStack(base,closure);
+                        frame.closure = closure;
+                        chunk = closure.function.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        ip = 0;
+                        break;
+                    }
+                    frame.ip = ip;
+                    if(callValue(callee,argCount,chunk.tokens[start])){
+                        frame = frames[frameCount-1];
+                        chunk = frame.closure.function.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OP_CLOSURE: {
+                    VmFunction function = (VmFunction) constants[readShort(code,ip)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for(int i=0;i<closure.upvalues.length;i++){
+                        boolean isLocal = code[ip++]==1;
+                        int index = readShort(code,ip);
+                        ip += 2;
+                        if(isLocal){
+                            closure.upvalues[i] = captureUpvalue(base + index);
+                        }else{
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    push(closure);
+                    break;
+                }
+                case OP_CLOSE_UPVALUE:
+                    closeUpvalues(sp-1);
+                    stack[--sp] = null;
+                    break;
+                case OP_RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack,base,sp,null);
+                    sp = base;
+                    if(frameCount==0){
+                        return;
+                    }
+                    push(result);
+                    frame = frames[frameCount-1];
+                    chunk = frame.closure.function.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OP_CLASS: {
+                    String name = (String) constants[readShort(code,ip)];
+                    int staticCount = readShort(code,ip + 2);
+                    ip += 4;
+                    push(new VmClass(name,staticCount));
+                    break;
+                }
+                case OP_INHERIT: {
+                    Object superclass = pop();
+                    if(!(superclass instanceof VmClass)){
+                        throw new RuntimeError(chunk.tokens[start],"Superclass must be a class.");
+                    }
+                    ((VmClass) stack[sp-1]).inherit((VmClass) superclass);
+                    break;
+                }
+                case OP_METHOD: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    ((VmClass) stack[sp-2]).putMethod(name,(VmClosure) pop());
+                    break;
+                }
+                case OP_GETTER: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    ((VmClass) stack[sp-2]).getters.put(name,(VmClosure) pop());
+                    break;
+                }
+                case OP_STATIC_METHOD: {
+                    String name = (String) constants[readShort(code,ip)];
+                    int slot = readShort(code,ip + 2);
+                    ip += 4;
+                    VmClosure method = (VmClosure) pop();
+                    VmClass klass = (VmClass) stack[sp-1];
+                    method.statics = klass.statics;
+                    method.staticMember = true;
+                    klass.putMethod(name,method);
+                    klass.statics[slot] = method;
+                    break;
+                }
+                case OP_STATIC_GETTER: {
+                    String name = (String) constants[readShort(code,ip)];
+                    int slot = readShort(code,ip + 2);
+                    ip += 4;
+                    VmClosure getter = (VmClosure) pop();
+                    VmClass klass = (VmClass) stack[sp-1];
+                    getter.statics = klass.statics;
+                    getter.staticMember = true;
+                    klass.getters.put(name,getter);
+                    klass.statics[slot] = getter;
+                    break;
+                }
+                case OP_STATIC_VAR: {
+                    int slot = readShort(code,ip);
+                    ip += 2;
+                    Object value = pop();
+                    ((VmClass) stack[sp-1]).statics[slot] = value;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[start]);
+            }
+        }
+    }
+
+    //Leaves the value of the property on the stack in place of the object,
+    //for getters it leaves the receiver and returns the getter to call
+    private VmClosure getProperty(String name,Token token){
+        Object object = stack[sp-1];
+        if(object==null){
+            throw new RuntimeError(token,"Undefined instance");
+        }
+        if(object instanceof VmInstance){
+            VmInstance instance = (VmInstance) object;
+            int slot = instance.shape.slot(name);
+            if(slot!=-1){
+                stack[sp-1] = instance.fields[slot];
+                return null;
+            }
+
+            VmClosure method = instance.klass.findMethod(name);
+            if(method!=null){
+                stack[sp-1] = method.staticMember ? method : new VmBoundMethod(instance,method);
+                return null;
+            }
+
+            VmClosure getter = instance.klass.findGetter(name);
+            if(getter!=null){
+                if(getter.staticMember){
+                    stack[sp-1] = getter;
+                }
+                return getter;
+            }
+            throw new RuntimeError(token,"Undefined property '" + name + "'.");
+        }
+        if(object instanceof VmClass){
+            VmClass klass = (VmClass) object;
+            VmClosure method = klass.findMethod(name);
+            VmClosure getter = klass.findGetter(name);
+            if(method==null && getter==null){
+                throw new RuntimeError(token,"Static field does not exists.");
+            }
+            if(method==null){
+                if(!getter.staticMember){
+                    throw new RuntimeError(token,"Can only call static method this way.");
+                }
+                stack[sp-1] = getter;
+                return getter;
+            }
+            if(getter==null){
+                if(!method.staticMember){
+                    throw new RuntimeError(token,"Can only call static method this way.");
+                }
+                stack[sp-1] = method;
+                return null;
+            }
+        }
+        throw new RuntimeError(token,"Only instances have properties.");
+    }
+
+    //returns true if a new frame was pushed
+    private boolean callValue(Object callee,int argCount,Token token){
+        if(callee instanceof VmClosure){
+            call((VmClosure) callee,argCount,token);
+            return true;
+        }
+        if(callee instanceof VmBoundMethod){
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[sp-1-argCount] = bound.receiver;
+            call(bound.method,argCount,token);
+            return true;
+        }
+        if(callee instanceof VmClass){
+            VmClass klass = (VmClass) callee;
+            stack[sp-1-argCount] = new VmInstance(klass);
+            VmClosure initializer = klass.initializer;
+            if(initializer!=null){
+                call(initializer,argCount,token);
+                return true;
+            }
+            checkArity(0,argCount,token);
+            return false;
+        }
+        if(callee instanceof LoxCallable){
+            LoxCallable function = (LoxCallable) callee;
+            checkArity(function.arity(),argCount,token);
+            int first = sp - argCount;
+            Object result;
+            switch (argCount){
+                case 0: result = function.call0(null); break;
+                case 1: result = function.call1(null,stack[first]); break;
+                case 2: result = function.call2(null,stack[first],stack[first + 1]); break;
+                case 3: result = function.call3(null,stack[first],stack[first + 1],stack[first + 2]); break;
+                default: result = function.callN(null,Arrays.copyOfRange(stack,first,sp));
+            }
+            Arrays.fill(stack,sp-argCount-1,sp,null);
+            sp -= argCount + 1;
+            push(result);
+            return false;
+        }
+        throw new RuntimeError(token,"Can only call functions and classes");
+    }
+
+    private void call(VmClosure closure,int argCount,Token token){
+        checkArity(closure.function.arity,argCount,token);
+        if(frameCount==frames.length){
+            if(frameCount==FRAMES_MAX){
+                throw new RuntimeError(token,"Stack overflow.");
+            }
+            frames = Arrays.copyOf(frames,frames.length * 2);
+            for(int i=frameCount;i<frames.length;i++){
+                frames[i] = new CallFrame();
+            }
+        }
+        int base = sp - argCount - 1;
+        ensureStack(base,closure);
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+    }
+
+    private void ensureStack(int base,VmClosure closure){
+        if(base + closure.function.maxStack>=stack.length){
+            stack = Arrays.copyOf(stack,Math.max(stack.length * 2,base + closure.function.maxStack + 1));
+        }
+    }
+
+    private void checkArity(int arity,int argCount,Token token){
+        if(argCount!=arity){
+            throw new RuntimeError(token,"Expected " +
+                    arity + " arguments bug got" +
+                    argCount + ".");
+        }
+    }
+
+    private VmUpvalue captureUpvalue(int slot){
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while(upvalue!=null && upvalue.slot>slot){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue!=null && upvalue.slot==slot){
+            return upvalue;
+        }
+
+        VmUpvalue created = new VmUpvalue(slot);
+        created.next = upvalue;
+        if(previous==null){
+            openUpvalues = created;
+        }else{
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while(openUpvalues!=null && openUpvalues.slot>=last){
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private static int readShort(byte[] code,int ip){
+        return ((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff);
+    }
+
+    private void push(Object value){
+        stack[sp++] = value;
+    }
+
+    private Object pop(){
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+}
@@ -0,0 +1,46 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmClass {
+    final String name;
+    VmClass superclass;
+    //own and inherited methods,OP_INHERIT copies the superclass's down
+    final Map<String, VmClosure> methods = new HashMap<>();
+    //"init" of the class or of a superclass
+    VmClosure initializer;
+    final Map<String, VmClosure> getters = new HashMap<>();
+    final Object[] statics;
+    final Shape rootShape = new Shape();
+
+    VmClass(String name,int staticCount){
+        this.name = name;
+        this.statics = new Object[staticCount];
+    }
+
+    VmClosure findMethod(String name){
+        return methods.get(name);
+    }
+
+    void inherit(VmClass superclass){
+        this.superclass = superclass;
+        methods.putAll(superclass.methods);
+        initializer = superclass.initializer;
+    }
+
+    void putMethod(String name,VmClosure method){
+        methods.put(name,method);
+        if(name.equals("init")) initializer = method;
+    }
+
+    //getters are not inherited,like in the tree walker
+    VmClosure findGetter(String name){
+        return getters.get(name);
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
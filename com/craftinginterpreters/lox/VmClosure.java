@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+class VmClosure {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+    //static variables of the class,only for static methods and getters
+    Object[] statics;
+    boolean staticMember = false;
+
+    VmClosure(VmFunction function){
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString(){
+        return function.toString();
+    }
+}
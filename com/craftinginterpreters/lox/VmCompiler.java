@@ -0,0 +1,905 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.craftinginterpreters.lox.Chunk.*;
+
+//Compiles the syntax tree to bytecode for the vm.
+//Locals live on the vm stack and closures capture them as upvalues,
+//scoping follows what the resolver does for the tree walker
+class VmCompiler implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
+
+    //local declared but its initializer is not compiled yet
+    private static final int UNINITIALIZED = -1;
+    //results of resolving a name that has no storage,
+    //the tree walker reads those as nil
+    private static final int NIL_LOCAL = -2;
+    private static final int MEMBER = -3;
+
+    private enum FunctionType{
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        GETTER,
+        STATIC_METHOD,
+        STATIC_GETTER
+    }
+
+    private static class Local{
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name,int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue{
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index,boolean isLocal){
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    //loop being compiled,break jumps to its end
+    private static class LoopState{
+        final LoopState enclosing;
+        final int scopeDepth;
+        final int ifDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        LoopState(LoopState enclosing,int scopeDepth,int ifDepth){
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+            this.ifDepth = ifDepth;
+        }
+    }
+
+    private static class ClassState{
+        final ClassState enclosing;
+        //static vars,static methods and static getters declared so far
+        final Map<String,Integer> statics = new HashMap<>();
+        //names of the other methods and getters,visible but always nil inside methods
+        final Set<String> members = new HashSet<>();
+
+        ClassState(ClassState enclosing){
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final ClassState klass;
+        //init returns the receiver whatever the body does
+        final boolean initializer;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+        //innermost loop of this function and the ifs open around the current code
+        LoopState loop = null;
+        int ifDepth = 0;
+
+        FunctionState(FunctionState enclosing,VmFunction function,FunctionType type,ClassState klass,boolean initializer){
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            this.klass = klass;
+            this.initializer = initializer;
+        }
+    }
+
+    private FunctionState current = null;
+    private ClassState currentClass = null;
+    private boolean hadError = false;
+    private final VmGlobals globals;
+
+    VmCompiler(VmGlobals globals){
+        this.globals = globals;
+    }
+
+    //returns null if the code could not be compiled
+    VmFunction compile(List<Stmt> statements){
+        current = new FunctionState(null,new VmFunction("script",0),FunctionType.SCRIPT,null,false);
+        //slot 0 holds the script itself
+        current.locals.add(new Local("",0));
+        adjustStack(1);
+
+        for(Stmt statement : statements){
+            compile(statement);
+        }
+        emitReturn(null);
+
+        VmFunction script = endFunction();
+        return hadError ? null : script;
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private Chunk chunk(){
+        return current.function.chunk;
+    }
+
+    //Statements
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        Expr expression = stmt.expression;
+        compile(expression);
+        //the tree walker echoes every other kind of expression statement
+        if(expression instanceof Expr.Assign || expression instanceof Expr.Call ||
+            expression instanceof Expr.Variable || expression instanceof Expr.Set){
+            emit(OP_POP,null);
+        }
+        else{
+            emit(OP_ECHO,null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        compile(stmt.expression);
+        emit(OP_PRINT,null);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        if(current.scopeDepth>0 && stmt.cell){
+            //a closure in the initializer may capture the variable,so its
+            //stack slot holds nil before the initializer runs and is set after
+            emit(OP_NIL,null);
+            addLocal(stmt.name.lexeme,UNINITIALIZED);
+            emitInitializer(stmt.initializer);
+            emitShort(OP_SET_LOCAL,current.locals.size() - 1,stmt.name);
+            emit(OP_POP,null);
+            markInitialized();
+        }
+        else if(current.scopeDepth>0){
+            addLocal(stmt.name.lexeme,UNINITIALIZED);
+            emitInitializer(stmt.initializer);
+            markInitialized();
+        }
+        else{
+            emitInitializer(stmt.initializer);
+            emitShort(OP_DEFINE_GLOBAL,global(stmt.name),stmt.name);
+        }
+        return null;
+    }
+
+    private void emitInitializer(Expr initializer){
+        if(initializer!=null){
+            compile(initializer);
+        }
+        else{
+            emit(OP_NIL,null);
+        }
+    }
+
+    @Override
+    public Void visitStaticVarStmt(Stmt.StaticVar stmt){
+        //only found in class bodies,see visitClassStmt
+        return null;
+    }
+
+    @Override
+    public Void visitGetField(Stmt.GetField stmt){
+        //only found in class bodies,see visitClassStmt
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        beginScope();
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        compile(stmt.condition);
+        int elseJump = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP,null);
+        current.ifDepth++;
+        emit(OP_IF_BLOCK_ON,null);
+        compile(stmt.thenBranch);
+        emit(OP_IF_BLOCK_OFF,null);
+        int endJump = emitJump(OP_JUMP);
+
+        patchJump(elseJump);
+        //the condition is still on the stack on this path
+        adjustStack(1);
+        emit(OP_POP,null);
+        if(stmt.elseBranch!=null){
+            emit(OP_IF_BLOCK_ON,null);
+            compile(stmt.elseBranch);
+            emit(OP_IF_BLOCK_OFF,null);
+        }
+        current.ifDepth--;
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP,null);
+        LoopState loop = new LoopState(current.loop,current.scopeDepth,current.ifDepth);
+        current.loop = loop;
+        compile(stmt.statement);
+        current.loop = loop.enclosing;
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emit(OP_POP,null);
+        for(int breakJump : loop.breakJumps){
+            patchJump(breakJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        beginScope();
+        if(stmt.initializer!=null) compile(stmt.initializer);
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP,null);
+        LoopState loop = new LoopState(current.loop,current.scopeDepth,current.ifDepth);
+        current.loop = loop;
+        compile(stmt.body);
+        current.loop = loop.enclosing;
+        if(stmt.increment!=null) compile(stmt.increment);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emit(OP_POP,null);
+        for(int breakJump : loop.breakJumps){
+            patchJump(breakJump);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt){
+        LoopState loop = current.loop;
+        if(loop==null) return null;
+        //the ifs the break leaves end like they do in the interpreter
+        if(current.ifDepth>loop.ifDepth){
+            emit(OP_IF_BLOCK_OFF,null);
+        }
+        //drop the locals of the scopes inside the loop,the compiler keeps
+        //them since the code after the break still belongs to those scopes
+        int stackDepth = current.stackDepth;
+        List<Local> locals = current.locals;
+        for(int i=locals.size()-1;i>=0 && locals.get(i).depth>loop.scopeDepth;i--){
+            emit(locals.get(i).isCaptured ? OP_CLOSE_UPVALUE : OP_POP,null);
+        }
+        loop.breakJumps.add(emitJump(OP_JUMP));
+        current.stackDepth = stackDepth;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        if(current.scopeDepth>0){
+            //initialized right away so the function can call itself
+            addLocal(stmt.name.lexeme,current.scopeDepth);
+            function(stmt,FunctionType.FUNCTION,false);
+        }
+        else{
+            function(stmt,FunctionType.FUNCTION,false);
+            emitShort(OP_DEFINE_GLOBAL,global(stmt.name),stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if(stmt.tail){
+            call((Expr.Call) stmt.value,OP_TAIL_CALL);
+            emit(OP_RETURN,stmt.keyword);
+        }
+        else if(stmt.value!=null){
+            compile(stmt.value);
+            if(current.initializer){
+                emit(OP_POP,null);
+                emitShort(OP_GET_LOCAL,0,stmt.keyword);
+            }
+            emit(OP_RETURN,stmt.keyword);
+        }
+        else{
+            emitReturn(stmt.keyword);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        //the tree walker defines the name as nil and assigns the class at the end
+        emit(OP_NIL,null);
+        if(current.scopeDepth>0){
+            addLocal(stmt.name.lexeme,current.scopeDepth);
+        }
+        else{
+            emitShort(OP_DEFINE_GLOBAL,global(stmt.name),stmt.name);
+        }
+
+        ClassState klass = new ClassState(currentClass);
+        currentClass = klass;
+
+        if(stmt.superclass!=null){
+            beginScope();
+            getVariable(stmt.superclass.name);
+            addLocal("super",current.scopeDepth);
+        }
+
+        emitShort(OP_CLASS,identifier(stmt.name),stmt.name);
+        int staticCount = chunk().count;
+        chunk().writeShort(0,stmt.name);
+
+        if(stmt.superclass!=null){
+            getVariable(new Token(TokenType.SUPER,"super",null,stmt.superclass.name.line));
+            emit(OP_INHERIT,stmt.superclass.name);
+        }
+
+        for(Stmt member : stmt.methods){
+            if(member instanceof Stmt.Function){
+                Stmt.Function method = (Stmt.Function) member;
+                boolean initializer = method.name.lexeme.equals("init");
+                if(method.staticMethod){
+                    int slot = declareStatic(klass,method.name);
+                    function(method,FunctionType.STATIC_METHOD,initializer);
+                    emitShort(OP_STATIC_METHOD,identifier(method.name),method.name);
+                    chunk().writeShort(slot,method.name);
+                }
+                else{
+                    klass.members.add(method.name.lexeme);
+                    function(method,FunctionType.METHOD,initializer);
+                    emitShort(OP_METHOD,identifier(method.name),method.name);
+                }
+            }
+            else if(member instanceof Stmt.GetField){
+                Stmt.GetField getter = (Stmt.GetField) member;
+                if(getter.staticField){
+                    int slot = declareStatic(klass,getter.name);
+                    getter(getter,FunctionType.STATIC_GETTER);
+                    emitShort(OP_STATIC_GETTER,identifier(getter.name),getter.name);
+                    chunk().writeShort(slot,getter.name);
+                }
+                else{
+                    klass.members.add(getter.name.lexeme);
+                    getter(getter,FunctionType.GETTER);
+                    emitShort(OP_GETTER,identifier(getter.name),getter.name);
+                }
+            }
+            else if(member instanceof Stmt.StaticVar){
+                Stmt.StaticVar var = (Stmt.StaticVar) member;
+                int slot = declareStatic(klass,var.name);
+                emitInitializer(var.initializer);
+                emitShort(OP_STATIC_VAR,slot,var.name);
+            }
+        }
+
+        int statics = klass.statics.size();
+        chunk().code[staticCount] = (byte)((statics >> 8) & 0xff);
+        chunk().code[staticCount + 1] = (byte)(statics & 0xff);
+
+        setVariable(stmt.name);
+        emit(OP_POP,null);
+
+        if(stmt.superclass!=null){
+            endScope();
+        }
+        currentClass = klass.enclosing;
+        return null;
+    }
+
+    private int declareStatic(ClassState klass,Token name){
+        Integer slot = klass.statics.get(name.lexeme);
+        if(slot==null){
+            slot = klass.statics.size();
+            if(slot>0xffff){
+                error(name,"Too many static fields in one class.");
+            }
+            klass.statics.put(name.lexeme,slot);
+        }
+        return slot;
+    }
+
+    private void function(Stmt.Function stmt,FunctionType type,boolean initializer){
+        VmFunction function = new VmFunction(stmt.name.lexeme,stmt.params.size());
+        beginFunction(function,type,initializer);
+        for(Token param : stmt.params){
+            addLocal(param.lexeme,current.scopeDepth);
+            adjustStack(1);
+        }
+        for(Stmt statement : stmt.body){
+            compile(statement);
+        }
+        emitReturn(null);
+        emitClosure(stmt.name);
+    }
+
+    private void getter(Stmt.GetField stmt,FunctionType type){
+        beginFunction(new VmFunction(stmt.name.lexeme,0),type,false);
+        for(Stmt statement : stmt.body){
+            compile(statement);
+        }
+        emitReturn(null);
+        emitClosure(stmt.name);
+    }
+
+    private void beginFunction(VmFunction function,FunctionType type,boolean initializer){
+        ClassState klass = type==FunctionType.FUNCTION ? null : currentClass;
+        current = new FunctionState(current,function,type,klass,initializer);
+        current.scopeDepth = 1;
+        //slot 0 is the receiver in methods and the callee otherwise
+        boolean hasThis = type==FunctionType.METHOD || type==FunctionType.GETTER;
+        current.locals.add(new Local(hasThis ? "this" : "",1));
+        adjustStack(1);
+    }
+
+    private VmFunction endFunction(){
+        VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        return function;
+    }
+
+    private void emitClosure(Token name){
+        FunctionState state = current;
+        VmFunction function = endFunction();
+        current = state.enclosing;
+
+        emitShort(OP_CLOSURE,makeConstant(function,name),name);
+        for(Upvalue upvalue : state.upvalues){
+            chunk().write((byte)(upvalue.isLocal ? 1 : 0),name);
+            chunk().writeShort(upvalue.index,name);
+        }
+    }
+
+    //Expressions
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        compile(expr.left);
+        compile(expr.right);
+        switch (expr.operator.type){
+            case GREATER:       emit(OP_GREATER,expr.operator); break;
+            case GREATER_EQUAL: emit(OP_GREATER_EQUAL,expr.operator); break;
+            case LESS:          emit(OP_LESS,expr.operator); break;
+            case LESS_EQUAL:    emit(OP_LESS_EQUAL,expr.operator); break;
+            case BANG_EQUAL:    emit(OP_NOT_EQUAL,expr.operator); break;
+            case EQUAL_EQUAL:   emit(OP_EQUAL,expr.operator); break;
+            case MINUS:         emit(OP_SUBTRACT,expr.operator); break;
+            case SLASH:         emit(OP_DIVIDE,expr.operator); break;
+            case STAR:          emit(OP_MULTIPLY,expr.operator); break;
+            case PLUS:          emit(OP_ADD,expr.operator); break;
+            default:
+                error(expr.operator,"Unsupported operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        if(expr.value==null){
+            emit(OP_NIL,null);
+        }
+        else if(Boolean.TRUE.equals(expr.value)){
+            emit(OP_TRUE,null);
+        }
+        else if(Boolean.FALSE.equals(expr.value)){
+            emit(OP_FALSE,null);
+        }
+        else{
+            emitShort(OP_CONSTANT,makeConstant(expr.value,null),null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        compile(expr.right);
+        if(expr.operator.type==TokenType.MINUS){
+            emit(OP_NEGATE,expr.operator);
+        }
+        else{
+            emit(OP_NOT,expr.operator);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        getVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        compile(expr.value);
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        compile(expr.left);
+        if(expr.operator.type==TokenType.OR){
+            int elseJump = emitJump(OP_JUMP_IF_FALSE);
+            int endJump = emitJump(OP_JUMP);
+            patchJump(elseJump);
+            emit(OP_POP,null);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        else{
+            int endJump = emitJump(OP_JUMP_IF_FALSE);
+            emit(OP_POP,null);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        call(expr,OP_CALL);
+        return null;
+    }
+
+    private void call(Expr.Call expr,byte op){
+        compile(expr.callee);
+        for(Stmt argument : expr.arguments){
+            if(argument instanceof Stmt.Function){
+                function((Stmt.Function) argument,FunctionType.FUNCTION,false);
+            }
+            else if(argument instanceof Stmt.Expression){
+                compile(((Stmt.Expression) argument).expression);
+            }
+        }
+        int argCount = expr.arguments.size();
+        chunk().write(op,expr.paren);
+        chunk().write((byte)argCount,expr.paren);
+        adjustStack(-argCount);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        compile(expr.object);
+        emitShort(OP_GET_PROPERTY,identifier(expr.name),expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        compile(expr.object);
+        compile(expr.value);
+        emitShort(OP_SET_PROPERTY,identifier(expr.name),expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        getVariable(new Token(TokenType.THIS,"this",null,expr.keyword.line));
+        getVariable(expr.keyword);
+        emitShort(OP_GET_SUPER,identifier(expr.method),expr.method);
+        return null;
+    }
+
+    //Variables
+
+    private void getVariable(Token name){
+        int arg = resolveLocal(current,name);
+        if(arg>=0){
+            emitShort(OP_GET_LOCAL,arg,name);
+            return;
+        }
+        if(arg==NIL_LOCAL){
+            emit(OP_NIL,null);
+            return;
+        }
+
+        if(isStatic(current)){
+            Integer slot = current.klass.statics.get(name.lexeme);
+            if(slot!=null){
+                emitShort(OP_GET_STATIC,slot,name);
+                return;
+            }
+        }
+        else{
+            arg = resolveUpvalue(current,name);
+            if(arg>=0){
+                emitShort(OP_GET_UPVALUE,arg,name);
+                return;
+            }
+            if(arg==MEMBER){
+                emit(OP_NIL,null);
+                return;
+            }
+        }
+
+        emitShort(OP_GET_GLOBAL,global(name),name);
+    }
+
+    //leaves the assigned value on the stack
+    private void setVariable(Token name){
+        int arg = resolveLocal(current,name);
+        if(arg>=0){
+            emitShort(OP_SET_LOCAL,arg,name);
+            return;
+        }
+        if(arg==NIL_LOCAL){
+            return;
+        }
+
+        if(isStatic(current)){
+            Integer slot = current.klass.statics.get(name.lexeme);
+            if(slot!=null){
+                emitShort(OP_SET_STATIC,slot,name);
+                return;
+            }
+        }
+        else{
+            arg = resolveUpvalue(current,name);
+            if(arg>=0){
+                emitShort(OP_SET_UPVALUE,arg,name);
+                return;
+            }
+            if(arg==MEMBER){
+                return;
+            }
+        }
+
+        emitShort(OP_SET_GLOBAL,global(name),name);
+    }
+
+    private int resolveLocal(FunctionState state,Token name){
+        for(int i=state.locals.size()-1;i>=0;i--){
+            Local local = state.locals.get(i);
+            if(local.name.equals(name.lexeme)){
+                //reading a variable in its own initializer gives nil in the tree walker
+                if(local.depth==UNINITIALIZED && state==current) return NIL_LOCAL;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state,Token name){
+        if(state.enclosing==null) return -1;
+        //static methods only see their own class statics,then the globals
+        if(isStatic(state)) return -1;
+        if((state.type==FunctionType.METHOD || state.type==FunctionType.GETTER)
+                && state.klass.members.contains(name.lexeme)){
+            return MEMBER;
+        }
+
+        int local = resolveLocal(state.enclosing,name);
+        if(local>=0){
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state,local,true,name);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing,name);
+        if(upvalue>=0){
+            return addUpvalue(state,upvalue,false,name);
+        }
+        return upvalue;
+    }
+
+    private int addUpvalue(FunctionState state,int index,boolean isLocal,Token name){
+        for(int i=0;i<state.upvalues.size();i++){
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.index==index && upvalue.isLocal==isLocal){
+                return i;
+            }
+        }
+        if(state.upvalues.size()>0xffff){
+            error(name,"Too many closure variables in function.");
+        }
+        state.upvalues.add(new Upvalue(index,isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private boolean isStatic(FunctionState state){
+        return state.type==FunctionType.STATIC_METHOD || state.type==FunctionType.STATIC_GETTER;
+    }
+
+    private void addLocal(String name,int depth){
+        if(current.locals.size()>0xffff){
+            error(null,"Too many local variables in function.");
+        }
+        current.locals.add(new Local(name,depth));
+    }
+
+    private void markInitialized(){
+        current.locals.get(current.locals.size()-1).depth = current.scopeDepth;
+    }
+
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size()-1).depth>current.scopeDepth){
+            if(locals.get(locals.size()-1).isCaptured){
+                emit(OP_CLOSE_UPVALUE,null);
+            }
+            else{
+                emit(OP_POP,null);
+            }
+            locals.remove(locals.size()-1);
+        }
+    }
+
+    //Emitting
+
+    private void emit(byte op,Token token){
+        chunk().write(op,token);
+        adjustStack(stackEffect(op));
+    }
+
+    private void emitShort(byte op,int operand,Token token){
+        emit(op,token);
+        chunk().writeShort(operand,token);
+    }
+
+    private void emitReturn(Token token){
+        if(current.initializer){
+            emitShort(OP_GET_LOCAL,0,token);
+        }
+        else{
+            emit(OP_NIL,token);
+        }
+        emit(OP_RETURN,token);
+    }
+
+    private int emitJump(byte op){
+        emit(op,null);
+        chunk().writeShort(0xffff,null);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset){
+        int jump = chunk().count - offset - 2;
+        if(jump>0xffff){
+            error(null,"Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte)((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart){
+        emit(OP_LOOP,null);
+        int offset = chunk().count - loopStart + 2;
+        if(offset>0xffff){
+            error(null,"Loop body too large.");
+        }
+        chunk().writeShort(offset,null);
+    }
+
+    private int identifier(Token name){
+        return makeConstant(name.lexeme,name);
+    }
+
+    //global instructions carry the slot of the name in VmGlobals
+    private int global(Token name){
+        int slot = globals.slot(name.lexeme);
+        if(slot>0xffff){
+            error(name,"Too many global variables.");
+        }
+        return slot;
+    }
+
+    private int makeConstant(Object value,Token token){
+        int constant = chunk().addConstant(value);
+        if(constant>0xffff){
+            error(token,"Too many constants in one chunk.");
+        }
+        return constant;
+    }
+
+    //keeps track of how deep the stack of the current function can get
+    private void adjustStack(int effect){
+        current.stackDepth += effect;
+        if(current.stackDepth>current.function.maxStack){
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private static int stackEffect(byte op){
+        switch (op){
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_GET_LOCAL:
+            case OP_GET_GLOBAL:
+            case OP_GET_UPVALUE:
+            case OP_GET_STATIC:
+            case OP_CLOSURE:
+            case OP_CLASS:
+                return 1;
+            case OP_POP:
+            case OP_DEFINE_GLOBAL:
+            case OP_SET_PROPERTY:
+            case OP_GET_SUPER:
+            case OP_EQUAL:
+            case OP_NOT_EQUAL:
+            case OP_GREATER:
+            case OP_GREATER_EQUAL:
+            case OP_LESS:
+            case OP_LESS_EQUAL:
+            case OP_ADD:
+            case OP_SUBTRACT:
+            case OP_MULTIPLY:
+            case OP_DIVIDE:
+            case OP_PRINT:
+            case OP_ECHO:
+            case OP_CLOSE_UPVALUE:
+            case OP_RETURN:
+            case OP_INHERIT:
+            case OP_METHOD:
+            case OP_GETTER:
+            case OP_STATIC_METHOD:
+            case OP_STATIC_GETTER:
+            case OP_STATIC_VAR:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private void error(Token token,String message){
+        if(token==null){
+            token = new Token(TokenType.EOF,"",null,0);
+        }
+        Lox.error(token,message);
+        hadError = true;
+    }
+}
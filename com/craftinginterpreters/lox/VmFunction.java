@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+//Compiled function for the vm,closures are created from it at runtime
+class VmFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    //deepest the operand stack of one call can get,locals included
+    int maxStack = 0;
+
+    VmFunction(String name,int arity){
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString(){
+        return "<fn " + name + ">";
+    }
+}
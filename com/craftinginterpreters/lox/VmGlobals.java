@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//Globals of the vm.The compiler gives every global name a slot and the
+//instructions carry the slot,a name keeps it for good,so a redefinition
+//on a later REPL line updates the value the old code already points at
+class VmGlobals {
+    //value of a slot whose name was never defined
+    static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    Object[] values = new Object[16];
+    String[] names = new String[16];
+    private int count = 0;
+
+    int slot(String name){
+        Integer slot = slots.get(name);
+        if(slot!=null){
+            return slot;
+        }
+        if(count==values.length){
+            values = Arrays.copyOf(values,count * 2);
+            names = Arrays.copyOf(names,count * 2);
+        }
+        values[count] = UNDEFINED;
+        names[count] = name;
+        slots.put(name,count);
+        return count++;
+    }
+
+    void define(String name,Object value){
+        values[slot(name)] = value;
+    }
+}
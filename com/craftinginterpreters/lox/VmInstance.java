@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+class VmInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final VmClass klass;
+    //same layout as LoxInstance,slots come from the shape
+    Shape shape;
+    Object[] fields = NO_FIELDS;
+
+    VmInstance(VmClass klass){
+        this.klass = klass;
+        this.shape = klass.rootShape;
+    }
+
+    void set(String name,Object value){
+        int slot = shape.slot(name);
+        if(slot==-1){
+            shape = shape.with(name);
+            slot = shape.size - 1;
+            if(slot==fields.length){
+                fields = Arrays.copyOf(fields,Math.max(4,slot * 2));
+            }
+        }
+        fields[slot] = value;
+    }
+
+    @Override
+    public String toString(){
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+//Captured variable,points into the vm stack until the variable goes out of scope
+class VmUpvalue {
+    //stack slot while open,-1 once closed
+    int slot;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int slot){
+        this.slot = slot;
+    }
+}